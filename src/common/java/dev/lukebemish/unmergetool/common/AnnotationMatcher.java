@@ -0,0 +1,98 @@
+package dev.lukebemish.unmergetool.common;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class AnnotationMatcher {
+    // Each type is told apart in a bit set alongside the sides
+    public static final int MAX_TYPES = 30;
+
+    public static final AnnotationMatcher DEFAULT = new AnnotationMatcher(List.of(EnumAnnotation.values()));
+
+    private final List<AnnotationType> types;
+    private final Map<String, Match> byDescriptor = new HashMap<>();
+    private final Map<String, AnnotationType> byQualifiedName = new HashMap<>();
+    private final byte[][] descriptors;
+
+    public AnnotationMatcher(List<? extends AnnotationType> types) {
+        if (types.size() > MAX_TYPES) {
+            throw new IllegalArgumentException("At most " + MAX_TYPES + " annotation types may be matched, but " + types.size() + " were given");
+        }
+        this.types = List.copyOf(types);
+        var descriptors = new ArrayList<byte[]>();
+        for (int i = 0; i < this.types.size(); i++) {
+            var type = this.types.get(i);
+            add(descriptors, type.annotationType(), new Match(type, i, false));
+            if (type.repeatable() != null) {
+                add(descriptors, type.repeatable(), new Match(type, i, true));
+            }
+            byQualifiedName.put(type.annotationType(), type);
+        }
+        this.descriptors = descriptors.toArray(byte[][]::new);
+    }
+
+    private void add(List<byte[]> descriptors, String annotationType, Match match) {
+        var descriptor = "L" + annotationType.replace('.', '/') + ";";
+        if (byDescriptor.putIfAbsent(descriptor, match) != null) {
+            throw new IllegalArgumentException("Annotation type " + annotationType + " is given more than once");
+        }
+        descriptors.add(descriptor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // One type per line: <annotation> <attribute> <client value> <server value> [<repeatable container>]; blank lines
+    // and lines starting with # are ignored
+    public static AnnotationMatcher withConfig(Path config) throws IOException {
+        List<AnnotationType> types = new ArrayList<>(Arrays.asList(EnumAnnotation.values()));
+        int lineNumber = 0;
+        for (var line : Files.readAllLines(config)) {
+            lineNumber++;
+            var trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            var parts = trimmed.split("\\s+");
+            if (parts.length != 4 && parts.length != 5) {
+                throw new IllegalArgumentException(config + ":" + lineNumber + ": Expected <annotation> <attribute> <client value> <server value> [<repeatable container>]");
+            }
+            types.add(new CustomAnnotation(parts[0], parts[1], parts[2], parts[3], parts.length == 5 ? parts[4] : null));
+        }
+        try {
+            return new AnnotationMatcher(types);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(config + ": " + e.getMessage(), e);
+        }
+    }
+
+    public List<AnnotationType> types() {
+        return types;
+    }
+
+    public @Nullable Match match(String descriptor) {
+        return byDescriptor.get(descriptor);
+    }
+
+    public @Nullable AnnotationType forQualifiedName(String qualifiedName) {
+        return byQualifiedName.get(qualifiedName);
+    }
+
+    // Compares modified UTF-8 bytes without decoding them
+    public boolean matchesDescriptor(byte[] bytes, int offset, int length) {
+        for (var descriptor : descriptors) {
+            if (descriptor.length == length && Arrays.equals(bytes, offset, offset + length, descriptor, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public record Match(AnnotationType type, int kind, boolean container) {}
+}
@@ -1,4 +1,17 @@
 package dev.lukebemish.unmergetool.common;
 
-public sealed interface AnnotationType permits EnumAnnotation {
+import org.jspecify.annotations.Nullable;
+
+public sealed interface AnnotationType permits EnumAnnotation, CustomAnnotation {
+    String name();
+
+    String annotationType();
+
+    String annotationName();
+
+    String clientValue();
+
+    String serverValue();
+
+    @Nullable String repeatable();
 }
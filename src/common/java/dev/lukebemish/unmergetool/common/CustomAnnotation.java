@@ -0,0 +1,19 @@
+package dev.lukebemish.unmergetool.common;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.Objects;
+
+public record CustomAnnotation(String annotationType, String annotationName, String clientValue, String serverValue, @Nullable String repeatable) implements AnnotationType {
+    public CustomAnnotation {
+        Objects.requireNonNull(annotationType);
+        Objects.requireNonNull(annotationName);
+        Objects.requireNonNull(clientValue);
+        Objects.requireNonNull(serverValue);
+    }
+
+    @Override
+    public String name() {
+        return annotationType;
+    }
+}
@@ -1,6 +1,10 @@
 package dev.lukebemish.unmergetool.common;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.jar.Manifest;
 
 public enum Distribution {
     CLIENT(true, false, List.of("Fabric-Loom-Server-Only-Entries")),
@@ -16,4 +20,15 @@ public enum Distribution {
         this.allowServer = allowServer;
         this.manifestExcludedClasses = manifestExcludedClasses;
     }
+
+    public Set<String> excludedEntries(Manifest manifest) {
+        Set<String> excluded = new HashSet<>();
+        for (var attr : manifestExcludedClasses) {
+            var found = manifest.getMainAttributes().getValue(attr);
+            if (found != null) {
+                excluded.addAll(Arrays.asList(found.split(";")));
+            }
+        }
+        return excluded;
+    }
 }
@@ -30,4 +30,29 @@ public enum EnumAnnotation implements AnnotationType {
     EnumAnnotation(String annotationType, String annotationName, String clientValue, String serverValue) {
         this(annotationType, annotationName, clientValue, serverValue, null, null);
     }
+
+    @Override
+    public String annotationType() {
+        return annotationType;
+    }
+
+    @Override
+    public String annotationName() {
+        return annotationName;
+    }
+
+    @Override
+    public String clientValue() {
+        return clientValue;
+    }
+
+    @Override
+    public String serverValue() {
+        return serverValue;
+    }
+
+    @Override
+    public @Nullable String repeatable() {
+        return repeatable;
+    }
 }
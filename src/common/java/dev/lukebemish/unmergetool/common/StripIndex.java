@@ -0,0 +1,100 @@
+package dev.lukebemish.unmergetool.common;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Keyed by binary class name; methods are recorded by name and descriptor, fields by name alone
+public final class StripIndex {
+    private static final int MAGIC = 0x554d5449;
+    private static final int FORMAT = 1;
+
+    private final Map<String, Entry> classes;
+
+    public StripIndex(Map<String, Entry> classes) {
+        this.classes = Collections.unmodifiableMap(new HashMap<>(classes));
+    }
+
+    public record Entry(boolean removed, Set<String> methods, Set<String> fields) {
+        public Entry {
+            methods = Set.copyOf(methods);
+            fields = Set.copyOf(fields);
+        }
+    }
+
+    public @Nullable Entry get(String binaryName) {
+        return classes.get(binaryName);
+    }
+
+    public Map<String, Entry> classes() {
+        return classes;
+    }
+
+    public void write(Path path) throws IOException {
+        if (path.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(classes.size());
+            for (var entry : new TreeMap<>(classes).entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeBoolean(entry.getValue().removed());
+                writeStrings(out, entry.getValue().methods());
+                writeStrings(out, entry.getValue().fields());
+            }
+        }
+    }
+
+    public static StripIndex read(Path path) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a strip index: " + path);
+            }
+            int format = in.readInt();
+            if (format != FORMAT) {
+                throw new IOException("Unsupported strip index format " + format + ": " + path);
+            }
+            int count = in.readInt();
+            Map<String, Entry> classes = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                var name = in.readUTF();
+                boolean removed = in.readBoolean();
+                var methods = readStrings(in);
+                var fields = readStrings(in);
+                classes.put(name, new Entry(removed, methods, fields));
+            }
+            return new StripIndex(classes);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (var string : new TreeSet<>(strings)) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static Set<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Set<String> strings = new HashSet<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,86 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.AnnotationMatcher;
+import dev.lukebemish.unmergetool.common.Distribution;
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ClassPassBenchmark {
+    @Param({"2000"})
+    public int classCount;
+
+    @Param({"16"})
+    public int memberCount;
+
+    @Param({"0.02", "0.1", "0.5"})
+    public double annotationDensity;
+
+    private List<byte[]> classes;
+    private List<Collected> collected;
+
+    @Setup
+    public void setup() {
+        classes = List.copyOf(SyntheticJar.classes(new SyntheticJar.Options(classCount, memberCount, annotationDensity, 0, 0, 0)).values());
+        collected = new ArrayList<>();
+        for (var bytes : classes) {
+            var collector = AnnotationScanner.collect(AnnotationMatcher.DEFAULT, bytes, bytes.length);
+            if (collector.stripsAnything(Distribution.SERVER)) {
+                collected.add(new Collected(bytes, collector));
+            }
+        }
+    }
+
+    @Benchmark
+    public void prefilter(Blackhole blackhole) {
+        for (var bytes : classes) {
+            blackhole.consume(ConstantPoolScanner.mayReferenceAnnotations(AnnotationMatcher.DEFAULT, bytes));
+        }
+    }
+
+    @Benchmark
+    public void collect(Blackhole blackhole) {
+        for (var bytes : classes) {
+            blackhole.consume(AnnotationScanner.collect(AnnotationMatcher.DEFAULT, bytes, bytes.length).marksAnything());
+        }
+    }
+
+    @Benchmark
+    public void collectWithAsm(Blackhole blackhole) {
+        for (var bytes : classes) {
+            var reader = new ClassReader(bytes);
+            var collector = new CollectingVisitor(null, AnnotationMatcher.DEFAULT);
+            reader.accept(collector, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            blackhole.consume(collector.marksAnything());
+        }
+    }
+
+    @Benchmark
+    public void rewrite(Blackhole blackhole) {
+        for (var entry : collected) {
+            blackhole.consume(StripResult.strip(entry.bytes(), entry.bytes().length, entry.collector(), Distribution.SERVER));
+        }
+    }
+
+    private record Collected(byte[] bytes, CollectingVisitor collector) {}
+}
@@ -0,0 +1,87 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.Distribution;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class JarBenchmark {
+    @Param({"1048576", "16777216", "67108864"})
+    public long inFlightBytes;
+
+    @Param({"5000"})
+    public int classCount;
+
+    @Param({"16"})
+    public int memberCount;
+
+    @Param({"0.1"})
+    public double annotationDensity;
+
+    @Param({"5000"})
+    public int resourceCount;
+
+    @Param({"16384"})
+    public int resourceSize;
+
+    @Param({"false", "true"})
+    public boolean allDistributions;
+
+    private Path directory;
+    private UnMergeTool.Job job;
+    private UnMergeTool tool;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("unmergetool-jmh");
+        var input = directory.resolve("input.jar");
+        SyntheticJar.write(input, new SyntheticJar.Options(classCount, memberCount, annotationDensity, resourceCount, resourceSize, 0));
+        var outputs = allDistributions
+            ? Map.of(
+                Distribution.CLIENT, directory.resolve("client.jar"),
+                Distribution.SERVER, directory.resolve("server.jar"),
+                Distribution.COMMON, directory.resolve("common.jar")
+            )
+            : Map.of(Distribution.SERVER, directory.resolve("server.jar"));
+        job = new UnMergeTool.Job(input, outputs, Map.of());
+        tool = UnMergeTool.builder().inFlightBytes(inFlightBytes).build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tool.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public UnMergeTool.Result strip() throws IOException {
+        return tool.run(job);
+    }
+}
@@ -0,0 +1,172 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.EnumAnnotation;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+final class SyntheticJar {
+    private static final EnumAnnotation[] KINDS = EnumAnnotation.values();
+
+    private SyntheticJar() {}
+
+    record Options(int classCount, int memberCount, double annotationDensity, int resourceCount, int resourceSize, long seed) {}
+
+    static Map<String, byte[]> classes(Options options) {
+        var random = new Random(options.seed());
+        var classes = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < options.classCount(); i++) {
+            var name = "synthetic/pkg" + (i % 32) + "/Generated" + i;
+            classes.put(name + ".class", generateClass(name, options, random));
+        }
+        return classes;
+    }
+
+    static void write(Path path, Options options) throws IOException {
+        var random = new Random(options.seed() ^ 0x5DEECE66DL);
+        var classes = classes(options);
+        var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        List<String> clientOnly = new ArrayList<>();
+        List<String> serverOnly = new ArrayList<>();
+        for (var name : classes.keySet()) {
+            int roll = random.nextInt(200);
+            if (roll == 0) {
+                clientOnly.add(name);
+            } else if (roll == 1) {
+                serverOnly.add(name);
+            }
+        }
+        manifest.getMainAttributes().putValue("Fabric-Loom-Client-Only-Entries", String.join(";", clientOnly));
+        manifest.getMainAttributes().putValue("Fabric-Loom-Server-Only-Entries", String.join(";", serverOnly));
+
+        try (var jar = new JarOutputStream(Files.newOutputStream(path), manifest)) {
+            for (var entry : classes.entrySet()) {
+                jar.putNextEntry(new ZipEntry(entry.getKey()));
+                jar.write(entry.getValue());
+                jar.closeEntry();
+            }
+            for (int i = 0; i < options.resourceCount(); i++) {
+                var size = random.nextInt(Math.max(1, options.resourceSize()));
+                byte[] contents;
+                String name;
+                if (random.nextBoolean()) {
+                    name = "assets/synthetic/lang/text" + i + ".json";
+                    var text = new StringBuilder();
+                    while (text.length() < size) {
+                        text.append("{\"key.synthetic.").append(random.nextInt(1000)).append("\": \"Synthetic text\"},\n");
+                    }
+                    contents = text.toString().getBytes(StandardCharsets.UTF_8);
+                } else {
+                    name = "assets/synthetic/textures/texture" + i + ".png";
+                    contents = new byte[size];
+                    random.nextBytes(contents);
+                }
+                jar.putNextEntry(new ZipEntry(name));
+                jar.write(contents);
+                jar.closeEntry();
+            }
+        }
+    }
+
+    private static byte[] generateClass(String name, Options options, Random random) {
+        var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V21, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        if (random.nextDouble() < options.annotationDensity() / 4) {
+            annotate(descriptor -> writer.visitAnnotation(descriptor, true), random);
+        }
+        for (int i = 0; i < options.memberCount() / 2; i++) {
+            var field = writer.visitField(Opcodes.ACC_PRIVATE, "field" + i, "I", null, null);
+            if (random.nextDouble() < options.annotationDensity()) {
+                annotate(descriptor -> field.visitAnnotation(descriptor, true), random);
+            }
+            field.visitEnd();
+        }
+
+        var constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        for (int i = 0; i < options.memberCount(); i++) {
+            var method = writer.visitMethod(Opcodes.ACC_PUBLIC, "method" + i, "(I)I", null, null);
+            if (random.nextDouble() < options.annotationDensity()) {
+                annotate(descriptor -> method.visitAnnotation(descriptor, true), random);
+            }
+            generateBody(method, name, i, options.memberCount());
+            method.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static void generateBody(MethodVisitor method, String owner, int index, int memberCount) {
+        method.visitCode();
+        var loop = new Label();
+        var end = new Label();
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitVarInsn(Opcodes.ISTORE, 2);
+        method.visitLabel(loop);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitVarInsn(Opcodes.ILOAD, 1);
+        method.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, owner, "method" + ((index + 1) % memberCount), "(I)I", false);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitInsn(Opcodes.IADD);
+        method.visitVarInsn(Opcodes.ISTORE, 2);
+        method.visitLdcInsn(owner + ".method" + index);
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "hashCode", "()I", false);
+        method.visitInsn(Opcodes.POP);
+        method.visitJumpInsn(Opcodes.GOTO, loop);
+        method.visitLabel(end);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(0, 0);
+    }
+
+    private static void annotate(Function<String, AnnotationVisitor> visitAnnotation, Random random) {
+        var kind = KINDS[random.nextInt(KINDS.length)];
+        var value = random.nextBoolean() ? kind.clientValue : kind.serverValue;
+        var enumDescriptor = "L" + kind.annotationType.replace('.', '/') + "$Side;";
+        // Half of the annotations of repeatable kinds are wrapped in their container
+        if (kind.repeatable != null && random.nextBoolean()) {
+            var container = visitAnnotation.apply(descriptor(kind.repeatable));
+            var array = container.visitArray("value");
+            var annotation = array.visitAnnotation(null, descriptor(kind.annotationType));
+            annotation.visitEnum(kind.annotationName, enumDescriptor, value);
+            annotation.visitEnd();
+            array.visitEnd();
+            container.visitEnd();
+        } else {
+            var annotation = visitAnnotation.apply(descriptor(kind.annotationType));
+            annotation.visitEnum(kind.annotationName, enumDescriptor, value);
+            annotation.visitEnd();
+        }
+    }
+
+    private static String descriptor(String annotationType) {
+        return "L" + annotationType.replace('.', '/') + ";";
+    }
+}
@@ -4,42 +4,78 @@
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiJavaFile;
 import com.intellij.psi.PsiJvmModifiersOwner;
+import dev.lukebemish.unmergetool.common.AnnotationMatcher;
 import dev.lukebemish.unmergetool.common.Distribution;
-import dev.lukebemish.unmergetool.common.EnumAnnotation;
+import dev.lukebemish.unmergetool.common.StripIndex;
 import net.neoforged.jst.api.PsiHelper;
 import net.neoforged.jst.api.Replacements;
 import net.neoforged.jst.api.SourceTransformer;
 import net.neoforged.jst.api.TransformContext;
+import org.jspecify.annotations.Nullable;
 import picocli.CommandLine;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 public class UnMergeToolTransformer implements SourceTransformer {
     @CommandLine.Option(names = "--distribution", description = "The distribution to keep elements from", required = true)
     public Distribution distribution;
 
-    @CommandLine.Option(names = "--target-classes", description = "List of classes that should be targeted", required = true)
+    @CommandLine.Option(names = "--target-classes", description = "List of classes that should be targeted")
     public Path targetClasses;
 
+    @CommandLine.Option(names = "--strip-index", description = "Index of the classes and members stripped from the binary, as written by the CLI; used instead of --target-classes to strip without resolving annotations")
+    public Path stripIndexPath;
+
+    @CommandLine.Option(names = "--manifest", description = "Jar, or manifest file, whose Fabric-Loom-*-Only-Entries attributes name class files to remove entirely")
+    public Path manifest;
+
+    @CommandLine.Option(names = "--annotations", description = "File of extra annotation types to strip by, one per line as <annotation> <attribute> <client value> <server value> [<repeatable container>]")
+    public Path annotations;
+
+    private AnnotationMatcher matcher = AnnotationMatcher.DEFAULT;
+
     private final Set<String> classFilesToRemove = new HashSet<>();
 
     private final Set<String> classFilesToTarget = new HashSet<>();
 
+    private @Nullable StripIndex stripIndex;
+
+    // Every class in the index and every class enclosing one, so that indexed inner classes are reached
+    private final Set<String> indexedClassesAndOuters = new HashSet<>();
+
     @Override
     public void beforeRun(TransformContext context) {
         SourceTransformer.super.beforeRun(context);
-        // TODO: Read `Fabric-Loom-Client-Only-Entries` and company from MANIFEST.MF
 
+        if (targetClasses == null && stripIndexPath == null) {
+            throw new IllegalArgumentException("One of --target-classes or --strip-index must be given");
+        }
         try {
-            var lines = Files.readAllLines(targetClasses);
-            classFilesToTarget.addAll(lines);
+            if (annotations != null) {
+                matcher = AnnotationMatcher.withConfig(annotations);
+            }
+            if (manifest != null) {
+                classFilesToRemove.addAll(distribution.excludedEntries(readManifest(manifest)));
+            }
+            if (stripIndexPath != null) {
+                stripIndex = StripIndex.read(stripIndexPath);
+                for (var name : stripIndex.classes().keySet()) {
+                    indexedClassesAndOuters.add(name);
+                    for (int i = name.indexOf('$'); i > 0; i = name.indexOf('$', i + 1)) {
+                        indexedClassesAndOuters.add(name.substring(0, i));
+                    }
+                }
+            } else {
+                var lines = Files.readAllLines(targetClasses);
+                classFilesToTarget.addAll(lines);
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -48,10 +84,22 @@ public void beforeRun(TransformContext context) {
     @Override
     public void visitFile(PsiFile psiFile, Replacements replacements) {
         if (psiFile instanceof PsiJavaFile psiJavaFile) {
-            for (var psiClass : psiJavaFile.getClasses()) {
-                var fqn = psiClass.getQualifiedName();
-                var inManifestRemoval = fqn != null && classFilesToRemove.contains(fqn.replace('.', '/')+".class");
-                if (inManifestRemoval || shouldRemoveElement(psiClass)) {
+            // Files whose every top-level class the manifest excludes go whole
+            var classes = psiJavaFile.getClasses();
+            if (!classFilesToRemove.isEmpty() && classes.length > 0 && Arrays.stream(classes).allMatch(psiClass -> classFilesToRemove.contains(binaryName(psiClass) + ".class"))) {
+                replacements.replace(psiJavaFile, "");
+                return;
+            }
+            for (var psiClass : classes) {
+                if (!classFilesToRemove.isEmpty() && classFilesToRemove.contains(binaryName(psiClass) + ".class")) {
+                    replacements.replace(psiClass, "");
+                    continue;
+                }
+                if (stripIndex != null) {
+                    handleIndexedClass(stripIndex, psiClass, replacements);
+                    continue;
+                }
+                if (shouldRemoveElement(psiClass)) {
                     replacements.replace(psiClass, "");
                 } else {
                     var name = binaryName(psiClass);
@@ -86,8 +134,48 @@ void handleClass(PsiClass psiClass, Replacements replacements) {
         }
     }
 
-    private static final Map<String, EnumAnnotation> ANNOTATION_TYPE_FQN_MAP = Arrays.stream(EnumAnnotation.values())
-        .collect(Collectors.toMap(e -> e.annotationType, Function.identity()));
+    void handleIndexedClass(StripIndex index, PsiClass psiClass, Replacements replacements) {
+        var name = binaryName(psiClass);
+        if (!indexedClassesAndOuters.contains(name)) {
+            return;
+        }
+        var entry = index.get(name);
+        if (entry != null) {
+            if (entry.removed()) {
+                replacements.replace(psiClass, "");
+                return;
+            }
+            if (!entry.methods().isEmpty()) {
+                for (var psiMethod : psiClass.getMethods()) {
+                    if (entry.methods().contains(PsiHelper.getBinaryMethodName(psiMethod) + PsiHelper.getBinaryMethodSignature(psiMethod))) {
+                        replacements.replace(psiMethod, "");
+                    }
+                }
+            }
+            if (!entry.fields().isEmpty()) {
+                for (var psiField : psiClass.getFields()) {
+                    if (entry.fields().contains(psiField.getName())) {
+                        replacements.replace(psiField, "");
+                    }
+                }
+            }
+        }
+        for (var psiInnerClass : psiClass.getInnerClasses()) {
+            handleIndexedClass(index, psiInnerClass, replacements);
+        }
+    }
+
+    private static Manifest readManifest(Path path) throws IOException {
+        if (path.getFileName().toString().endsWith(".jar")) {
+            try (var jar = new JarFile(path.toFile(), false)) {
+                var manifest = jar.getManifest();
+                return manifest == null ? new Manifest() : manifest;
+            }
+        }
+        try (var is = Files.newInputStream(path)) {
+            return new Manifest(is);
+        }
+    }
 
     private static String binaryName(PsiClass psiClass) {
         StringBuilder builder = new StringBuilder();
@@ -97,14 +185,15 @@ private static String binaryName(PsiClass psiClass) {
 
     boolean shouldRemoveElement(PsiJvmModifiersOwner owner) {
         for (var annotation : owner.getAnnotations()) {
-            var annotationType = ANNOTATION_TYPE_FQN_MAP.get(annotation.getQualifiedName());
+            var qualifiedName = annotation.getQualifiedName();
+            var annotationType = qualifiedName == null ? null : matcher.forQualifiedName(qualifiedName);
             if (annotationType != null) {
-                var value = annotation.findAttributeValue("value");
+                var value = annotation.findAttributeValue(annotationType.annotationName());
                 if (value != null) {
                     var values = value.getText().split("\\.");
                     var enumValue = values[values.length - 1];
-                    boolean isClient = annotationType.clientValue.equals(enumValue);
-                    boolean isServer = annotationType.serverValue.equals(enumValue);
+                    boolean isClient = annotationType.clientValue().equals(enumValue);
+                    boolean isServer = annotationType.serverValue().equals(enumValue);
                     if (!distribution.allowClient && isClient || !distribution.allowServer && isServer) {
                         return true;
                     }
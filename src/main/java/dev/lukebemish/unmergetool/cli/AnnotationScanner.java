@@ -0,0 +1,196 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.AnnotationMatcher;
+import org.jspecify.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+final class AnnotationScanner {
+    private static final byte[] VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations".getBytes(StandardCharsets.UTF_8);
+
+    private final AnnotationMatcher matcher;
+    private final byte[] classFile;
+    private final int length;
+    private final int[] constantOffsets;
+    private int position;
+
+    private AnnotationScanner(AnnotationMatcher matcher, byte[] classFile, int length) {
+        this.matcher = matcher;
+        this.classFile = classFile;
+        this.length = length;
+        this.constantOffsets = new int[u16(8)];
+    }
+
+    // Class files too malformed to walk are collected by ASM instead, which reports them as it otherwise would
+    static CollectingVisitor collect(AnnotationMatcher matcher, byte[] classFile, int length) {
+        var collector = new CollectingVisitor(null, matcher);
+        try {
+            if (length < 10 || ConstantPoolScanner.u16(classFile, 0) != 0xCAFE || ConstantPoolScanner.u16(classFile, 2) != 0xBABE) {
+                throw new IllegalArgumentException("Not a class file");
+            }
+            new AnnotationScanner(matcher, classFile, length).scan(collector);
+            return collector;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            collector = new CollectingVisitor(null, matcher);
+            new ClassReader(classFile, 0, length).accept(collector, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return collector;
+        }
+    }
+
+    private void scan(CollectingVisitor collector) {
+        position = ConstantPoolScanner.walk(classFile, (index, offset) -> {
+            constantOffsets[index] = offset;
+            return true;
+        });
+        if (position < 0) {
+            throw new IllegalArgumentException("Unknown constant pool tag");
+        }
+        // Access flags, this class and superclass, then the interfaces
+        position += 6;
+        position += 2 + 2 * u16(position);
+        int fields = u16(position);
+        position += 2;
+        for (int i = 0; i < fields; i++) {
+            int name = u16(position + 2);
+            int descriptor = u16(position + 4);
+            position += 6;
+            int sides = attributes();
+            if (sides != 0) {
+                collector.markField(utf8(name) + ":" + utf8(descriptor), sides);
+            }
+        }
+        int methods = u16(position);
+        position += 2;
+        for (int i = 0; i < methods; i++) {
+            int name = u16(position + 2);
+            int descriptor = u16(position + 4);
+            position += 6;
+            int sides = attributes();
+            if (sides != 0) {
+                collector.markMethod(utf8(name) + utf8(descriptor), sides);
+            }
+        }
+        int sides = attributes();
+        if (sides != 0) {
+            collector.markClass(sides);
+        }
+        if (position > length) {
+            throw new IllegalArgumentException("Class file is truncated");
+        }
+    }
+
+    private int attributes() {
+        int count = u16(position);
+        position += 2;
+        int sides = 0;
+        for (int i = 0; i < count; i++) {
+            int name = u16(position);
+            int end = position + 6 + u32(position + 2);
+            position += 6;
+            if (utf8Equals(name, VISIBLE_ANNOTATIONS) || utf8Equals(name, INVISIBLE_ANNOTATIONS)) {
+                int annotations = u16(position);
+                position += 2;
+                for (int j = 0; j < annotations; j++) {
+                    sides |= annotation(null);
+                }
+            }
+            position = end;
+        }
+        return sides;
+    }
+
+    // Annotations within a repeatable container are read as the type of the container, as CollectingVisitor reads them
+    private int annotation(AnnotationMatcher.@Nullable Match container) {
+        int type = u16(position);
+        int pairs = u16(position + 2);
+        position += 4;
+        var match = container;
+        if (match == null && matchesDescriptor(type)) {
+            match = matcher.match(utf8(type));
+        }
+        int sides = 0;
+        for (int i = 0; i < pairs; i++) {
+            int name = u16(position);
+            position += 2;
+            if (match == null) {
+                skipElementValue();
+            } else if (match.container() && classFile[position] == '[') {
+                int values = u16(position + 1);
+                position += 3;
+                for (int j = 0; j < values; j++) {
+                    if (classFile[position] == '@') {
+                        position++;
+                        sides |= annotation(new AnnotationMatcher.Match(match.type(), match.kind(), false));
+                    } else {
+                        skipElementValue();
+                    }
+                }
+            } else if (!match.container() && classFile[position] == 'e' && match.type().annotationName().equals(utf8(name))) {
+                sides |= CollectingVisitor.sides(match, utf8(u16(position + 3)));
+                position += 5;
+            } else {
+                skipElementValue();
+            }
+        }
+        return sides;
+    }
+
+    private void skipElementValue() {
+        int tag = classFile[position++];
+        switch (tag) {
+            case 'B', 'C', 'D', 'F', 'I', 'J', 'S', 'Z', 's', 'c' -> position += 2;
+            case 'e' -> position += 4;
+            case '@' -> {
+                // Annotations nested in values mark nothing, whatever their type
+                int pairs = u16(position + 2);
+                position += 4;
+                for (int i = 0; i < pairs; i++) {
+                    position += 2;
+                    skipElementValue();
+                }
+            }
+            case '[' -> {
+                int values = u16(position);
+                position += 2;
+                for (int i = 0; i < values; i++) {
+                    skipElementValue();
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown element value tag " + tag);
+        }
+    }
+
+    private int utf8Offset(int index) {
+        int offset = constantOffsets[index];
+        if (offset == 0 || classFile[offset] != 1) {
+            throw new IllegalArgumentException("Constant " + index + " is not a UTF-8 string");
+        }
+        return offset;
+    }
+
+    private boolean matchesDescriptor(int index) {
+        int offset = utf8Offset(index);
+        return matcher.matchesDescriptor(classFile, offset + 3, u16(offset + 1));
+    }
+
+    private boolean utf8Equals(int index, byte[] expected) {
+        int offset = utf8Offset(index);
+        int utfLength = u16(offset + 1);
+        return utfLength == expected.length && Arrays.equals(classFile, offset + 3, offset + 3 + utfLength, expected, 0, utfLength);
+    }
+
+    private String utf8(int index) {
+        return ConstantPoolScanner.utf8(classFile, utf8Offset(index));
+    }
+
+    private int u16(int offset) {
+        return ConstantPoolScanner.u16(classFile, offset);
+    }
+
+    private int u32(int offset) {
+        return (u16(offset) << 16) | u16(offset + 2);
+    }
+}
@@ -0,0 +1,137 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.Distribution;
+import org.jspecify.annotations.Nullable;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+final class BatchJobs {
+    private BatchJobs() {}
+
+    static List<UnMergeTool.Job> fromDirectory(Path inputDir, String glob, Map<Distribution, Path> outputDirs, Map<Distribution, Path> targetClassesDirs, Map<Distribution, Path> stripIndexDirs) throws IOException {
+        var matcher = inputDir.getFileSystem().getPathMatcher("glob:" + glob);
+        List<Path> inputs;
+        try (Stream<Path> paths = Files.walk(inputDir)) {
+            inputs = paths
+                .filter(Files::isRegularFile)
+                .filter(path -> matcher.matches(inputDir.relativize(path)))
+                .sorted(Comparator.naturalOrder())
+                .toList();
+        }
+        var jobs = new ArrayList<UnMergeTool.Job>();
+        for (var input : inputs) {
+            var relative = inputDir.relativize(input);
+            var job = UnMergeTool.Job.builder(input);
+            outputDirs.forEach((distribution, outputDir) -> job.output(distribution, outputDir.resolve(relative.toString())));
+            targetClassesDirs.forEach((distribution, targetClassesDir) -> job.targetClasses(distribution, targetClassesDir.resolve(withExtension(relative.toString(), ".txt"))));
+            stripIndexDirs.forEach((distribution, stripIndexDir) -> job.stripIndex(distribution, stripIndexDir.resolve(withExtension(relative.toString(), ".idx"))));
+            jobs.add(job.build());
+        }
+        return jobs;
+    }
+
+    // Relative paths in the manifest are resolved against its directory
+    static List<UnMergeTool.Job> fromManifest(Path manifest, @Nullable Distribution defaultDistribution) throws IOException {
+        var base = manifest.toAbsolutePath().getParent();
+        var jobs = new ArrayList<UnMergeTool.Job>();
+        int lineNumber = 0;
+        for (var line : Files.readAllLines(manifest)) {
+            lineNumber++;
+            var trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            var options = new JobLine();
+            try {
+                new CommandLine(options).parseArgs(tokenize(trimmed).toArray(String[]::new));
+                var fallback = options.distribution != null ? options.distribution : defaultDistribution;
+                var job = UnMergeTool.Job.builder(base.resolve(options.input));
+                for (var output : options.outputs) {
+                    job.output(output.distributionOr(fallback, "--output"), base.resolve(output.path()));
+                }
+                for (var targets : options.targetClasses) {
+                    job.targetClasses(targets.distributionOr(fallback, "--target-classes"), base.resolve(targets.path()));
+                }
+                for (var index : options.stripIndexes) {
+                    job.stripIndex(index.distributionOr(fallback, "--strip-index"), base.resolve(index.path()));
+                }
+                if (options.previousInput != null) {
+                    job.previousInput(base.resolve(options.previousInput));
+                }
+                for (var previous : options.previousOutputs) {
+                    job.previousOutput(previous.distributionOr(fallback, "--previous-output"), base.resolve(previous.path()));
+                }
+                jobs.add(job.build());
+            } catch (CommandLine.ParameterException | IllegalArgumentException e) {
+                throw new IllegalArgumentException(manifest + ":" + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return jobs;
+    }
+
+    private static List<String> tokenize(String line) {
+        var tokens = new ArrayList<String>();
+        var current = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inToken) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                current.append(c);
+                inToken = true;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quote");
+        }
+        if (inToken) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+
+    private static String withExtension(String path, String extension) {
+        return (path.endsWith(".jar") ? path.substring(0, path.length() - ".jar".length()) : path) + extension;
+    }
+
+    @CommandLine.Command(name = "job")
+    private static final class JobLine {
+        @CommandLine.Option(names = "--input", required = true)
+        Path input;
+
+        @CommandLine.Option(names = "--output", required = true, converter = DistributionPath.Converter.class)
+        List<DistributionPath> outputs;
+
+        @CommandLine.Option(names = "--target-classes", converter = DistributionPath.Converter.class)
+        List<DistributionPath> targetClasses = List.of();
+
+        @CommandLine.Option(names = "--strip-index", converter = DistributionPath.Converter.class)
+        List<DistributionPath> stripIndexes = List.of();
+
+        @CommandLine.Option(names = "--previous-input")
+        @Nullable Path previousInput;
+
+        @CommandLine.Option(names = "--previous-output", converter = DistributionPath.Converter.class)
+        List<DistributionPath> previousOutputs = List.of();
+
+        @CommandLine.Option(names = "--distribution")
+        @Nullable Distribution distribution;
+    }
+}
@@ -0,0 +1,55 @@
+package dev.lukebemish.unmergetool.cli;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Arrays handed out may be longer than asked for, so callers track the length they use
+final class BufferPool {
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 24;
+
+    private final ConcurrentLinkedQueue<byte[]>[] bins;
+    private final long maxRetained;
+    private final AtomicLong retained = new AtomicLong();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool(long maxRetained) {
+        this.maxRetained = maxRetained;
+        this.bins = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < bins.length; i++) {
+            bins[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    byte[] acquire(int length) {
+        int bin = bin(length);
+        if (bin >= bins.length) {
+            return new byte[length];
+        }
+        var buffer = bins[bin].poll();
+        if (buffer != null) {
+            retained.addAndGet(-buffer.length);
+            return buffer;
+        }
+        return new byte[1 << (bin + MIN_SHIFT)];
+    }
+
+    void release(byte[] buffer) {
+        int bin = bin(buffer.length);
+        if (bin >= bins.length || buffer.length != 1 << (bin + MIN_SHIFT)) {
+            return;
+        }
+        if (retained.addAndGet(buffer.length) > maxRetained) {
+            retained.addAndGet(-buffer.length);
+            return;
+        }
+        bins[bin].offer(buffer);
+    }
+
+    private static int bin(int length) {
+        if (length <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,37 @@
+package dev.lukebemish.unmergetool.cli;
+
+// A request for more than the whole budget takes all of it, so that any single entry can still be processed
+final class ByteBudget {
+    private final long capacity;
+    private long available;
+
+    ByteBudget(long capacity) {
+        this.capacity = capacity;
+        this.available = capacity;
+    }
+
+    synchronized long acquire(long bytes) throws InterruptedException {
+        long taken = Math.min(bytes, capacity);
+        while (available < taken) {
+            wait();
+        }
+        available -= taken;
+        return taken;
+    }
+
+    synchronized long tryAcquire(long bytes) {
+        long taken = Math.min(bytes, capacity);
+        if (available < taken) {
+            return -1;
+        }
+        available -= taken;
+        return taken;
+    }
+
+    synchronized void release(long bytes) {
+        if (bytes > 0) {
+            available += bytes;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package dev.lukebemish.unmergetool.cli;
+
+import picocli.CommandLine;
+
+import java.util.Locale;
+
+final class ByteSizeConverter implements CommandLine.ITypeConverter<Long> {
+    @Override
+    public Long convert(String value) {
+        var trimmed = value.trim().toUpperCase(Locale.ROOT);
+        if (trimmed.endsWith("B")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        int shift = 0;
+        if (!trimmed.isEmpty()) {
+            switch (trimmed.charAt(trimmed.length() - 1)) {
+                case 'K' -> shift = 10;
+                case 'M' -> shift = 20;
+                case 'G' -> shift = 30;
+                default -> {}
+            }
+        }
+        if (shift != 0) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        try {
+            long size = Long.parseLong(trimmed.trim());
+            if (size < 0 || size > Long.MAX_VALUE >> shift) {
+                throw new CommandLine.TypeConversionException("Size out of range: " + value);
+            }
+            return size << shift;
+        } catch (NumberFormatException e) {
+            throw new CommandLine.TypeConversionException("Invalid size: " + value);
+        }
+    }
+}
@@ -0,0 +1,628 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.AnnotationMatcher;
+import dev.lukebemish.unmergetool.common.Distribution;
+import org.jspecify.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+// Only elements nothing outside their own code can name are cascaded: anonymous and local classes, synthetic fields,
+// and synthetic methods that are static or private. Classes under META-INF/versions/ are never cascaded, and everything
+// they reference is kept.
+final class CascadeAnalysis {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CascadeAnalysis.class);
+
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+    private static final byte[] INNER_CLASSES = "InnerClasses".getBytes(StandardCharsets.UTF_8);
+    private static final Member NO_REFERENCES = new Member(false, false, Set.of(), Set.of());
+
+    private final List<Map<String, Removals>> removals;
+
+    private CascadeAnalysis(List<Map<String, Removals>> removals) {
+        this.removals = removals;
+    }
+
+    record Removals(boolean removeClass, Set<String> removeMethods, Set<String> removeFields, Set<String> removeNestedClasses) {}
+
+    static @Nullable CascadeAnalysis analyze(ZipArchive archive, List<Distribution> distributions, List<Set<String>> excludedEntries, AnnotationMatcher matcher, Executor executor, RunStats stats) throws IOException {
+        var entries = new ArrayList<ZipArchive.Entry>();
+        for (var entry : archive.entries()) {
+            if (!entry.isDirectory() && entry.name().endsWith(".class")) {
+                entries.add(entry);
+            }
+        }
+        var outlines = readAll(entries, entry -> outline(archive, entry, matcher, stats), executor);
+        if (outlines.contains(null)) {
+            return null;
+        }
+        Set<String> candidateClasses = new HashSet<>();
+        Set<String> candidateMembers = new HashSet<>();
+        for (var outline : outlines) {
+            if (outline.nestedInCode) {
+                candidateClasses.add(outline.name);
+            }
+            for (var key : outline.candidates) {
+                candidateMembers.add(outline.name + "." + key);
+            }
+        }
+        var referencing = outlines.stream().filter(outline -> outline.info == null && outline.referencesAny(candidateClasses, candidateMembers)).toList();
+        var referenced = readAll(referencing, outline -> references(archive, outline, stats), executor);
+        if (referenced.contains(null)) {
+            return null;
+        }
+
+        Map<String, ClassInfo> read = new HashMap<>();
+        for (var info : referenced) {
+            read.put(info.entryName, info);
+        }
+        Map<String, ClassInfo> classes = new HashMap<>();
+        List<ClassInfo> versioned = new ArrayList<>();
+        for (var outline : outlines) {
+            var info = outline.info != null ? outline.info : read.get(outline.entry.name());
+            if (info == null) {
+                info = new ClassInfo(outline.entry.name(), outline.name, false, NO_REFERENCES, Map.of(), Set.of(), outline.collector);
+            }
+            if (info.entryName.startsWith(VERSIONS_PREFIX)) {
+                versioned.add(info);
+            } else {
+                classes.put(info.name, info);
+            }
+        }
+        long wall = stats.wallTime();
+        long cpu = stats.cpuTime();
+        var removals = new ArrayList<Map<String, Removals>>();
+        for (int i = 0; i < distributions.size(); i++) {
+            removals.add(new Reachability(classes, distributions.get(i), excludedEntries.get(i)).removals(versioned));
+        }
+        stats.phase(RunStats.Phase.CASCADE, wall, cpu);
+        return new CascadeAnalysis(removals);
+    }
+
+    boolean affects(String entryName) {
+        for (var output : removals) {
+            if (output.containsKey(entryName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nullable Removals removals(int output, String entryName) {
+        return removals.get(output).get(entryName);
+    }
+
+    // The caller works through the items alongside the executor and only ever waits on items already being read, so
+    // this cannot stall even if the executor is busy with, or running, the caller
+    private static <T, R> List<@Nullable R> readAll(List<T> items, Function<T, @Nullable R> reader, Executor executor) throws IOException {
+        var results = new AtomicReferenceArray<@Nullable R>(items.size());
+        var next = new AtomicInteger();
+        var remaining = new CountDownLatch(items.size());
+        var failure = new AtomicReference<@Nullable RuntimeException>();
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < items.size(); i = next.getAndIncrement()) {
+                try {
+                    results.set(i, reader.apply(items.get(i)));
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    remaining.countDown();
+                }
+            }
+        };
+        int helpers = Math.min(items.size(), Runtime.getRuntime().availableProcessors()) - 1;
+        try {
+            for (int i = 0; i < helpers; i++) {
+                executor.execute(worker);
+            }
+        } catch (RejectedExecutionException e) {
+            // The calling thread gets through whatever no helper does
+        }
+        worker.run();
+        try {
+            remaining.await();
+        } catch (InterruptedException e) {
+            next.set(items.size());
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading references");
+        }
+        var exception = failure.get();
+        if (exception instanceof UncheckedIOException io) {
+            throw io.getCause();
+        } else if (exception != null) {
+            throw exception;
+        }
+        var list = new ArrayList<@Nullable R>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            list.add(results.get(i));
+        }
+        return list;
+    }
+
+    private static @Nullable Outline outline(ZipArchive archive, ZipArchive.Entry entry, AnnotationMatcher matcher, RunStats stats) {
+        byte[] contents;
+        try {
+            contents = archive.read(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long wall = stats.wallTime();
+        long cpu = stats.cpuTime();
+        try {
+            return outline(entry, contents, AnnotationScanner.collect(matcher, contents, contents.length));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not read references of {}; nothing will be cascaded from its jar", entry.name(), e);
+            return null;
+        } finally {
+            stats.phase(RunStats.Phase.CASCADE, wall, cpu);
+        }
+    }
+
+    private static @Nullable ClassInfo references(ZipArchive archive, Outline outline, RunStats stats) {
+        byte[] contents;
+        try {
+            contents = archive.read(outline.entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long wall = stats.wallTime();
+        long cpu = stats.cpuTime();
+        try {
+            return references(outline.entry, outline.name, outline.nestedInCode, outline.collector, contents);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not read references of {}; nothing will be cascaded from its jar", outline.entry.name(), e);
+            return null;
+        } finally {
+            stats.phase(RunStats.Phase.CASCADE, wall, cpu);
+        }
+    }
+
+    private static ClassInfo references(ZipArchive.Entry entry, String name, boolean candidate, CollectingVisitor collector, byte[] contents) {
+        var references = new ReferenceCollector();
+        new ClassReader(contents).accept(references, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return new ClassInfo(entry.name(), name, candidate, references.structure, references.members, references.nestedClasses, collector);
+    }
+
+    // Classes with candidates of their own have their references read right away; any other class only matters if its
+    // constant pool names a candidate
+    private static Outline outline(ZipArchive.Entry entry, byte[] classFile, CollectingVisitor collector) {
+        var constants = new int[ConstantPoolScanner.u16(classFile, 8)];
+        int position = ConstantPoolScanner.walk(classFile, (index, offset) -> {
+            constants[index] = offset;
+            return true;
+        });
+        if (position < 0) {
+            throw new IllegalArgumentException("Unknown constant pool tag");
+        }
+        var name = className(classFile, constants, ConstantPoolScanner.u16(classFile, position + 2));
+        position += 6;
+        position += 2 + 2 * ConstantPoolScanner.u16(classFile, position);
+        Set<String> candidates = new HashSet<>();
+        List<String> descriptors = new ArrayList<>();
+        boolean bridges = false;
+        for (int table = 0; table < 2; table++) {
+            int count = ConstantPoolScanner.u16(classFile, position);
+            position += 2;
+            for (int i = 0; i < count; i++) {
+                int access = ConstantPoolScanner.u16(classFile, position);
+                var memberName = utf8(classFile, constants, ConstantPoolScanner.u16(classFile, position + 2));
+                var descriptor = utf8(classFile, constants, ConstantPoolScanner.u16(classFile, position + 4));
+                descriptors.add(descriptor);
+                position += 6;
+                int attributes = ConstantPoolScanner.u16(classFile, position);
+                position += 2;
+                for (int j = 0; j < attributes; j++) {
+                    position += 6 + u32(classFile, position + 2);
+                }
+                if (table == 0 && (access & Opcodes.ACC_SYNTHETIC) != 0) {
+                    candidates.add(memberName + ":" + descriptor);
+                } else if (table == 1) {
+                    bridges |= (access & Opcodes.ACC_BRIDGE) != 0;
+                    if (isCandidateMethod(access, memberName)) {
+                        candidates.add(memberName + descriptor);
+                    }
+                }
+            }
+        }
+        boolean nestedInCode = false;
+        int attributes = ConstantPoolScanner.u16(classFile, position);
+        position += 2;
+        for (int i = 0; i < attributes; i++) {
+            int attributeName = constants[ConstantPoolScanner.u16(classFile, position)];
+            int end = position + 6 + u32(classFile, position + 2);
+            int length = ConstantPoolScanner.u16(classFile, attributeName + 1);
+            if (Arrays.equals(classFile, attributeName + 3, attributeName + 3 + length, INNER_CLASSES, 0, INNER_CLASSES.length)) {
+                int classes = ConstantPoolScanner.u16(classFile, position + 6);
+                for (int j = 0; j < classes; j++) {
+                    int inner = position + 8 + 8 * j;
+                    // Anonymous and local classes have no outer class recorded for them
+                    if (ConstantPoolScanner.u16(classFile, inner + 2) == 0 && className(classFile, constants, ConstantPoolScanner.u16(classFile, inner)).equals(name)) {
+                        nestedInCode = true;
+                    }
+                }
+            }
+            position = end;
+        }
+        if (position > classFile.length) {
+            throw new IllegalArgumentException("Class file is truncated");
+        }
+        if (nestedInCode || !candidates.isEmpty() || bridges && collector.marksAnything()) {
+            return new Outline(entry, name, nestedInCode, candidates, Set.of(), Set.of(), collector, references(entry, name, nestedInCode, collector, classFile));
+        }
+        Set<String> classReferences = new HashSet<>();
+        Set<String> memberReferences = new HashSet<>();
+        for (int offset : constants) {
+            if (offset == 0) {
+                continue;
+            }
+            int tag = classFile[offset];
+            switch (tag) {
+                case 7 -> addType(classReferences, Type.getObjectType(utf8(classFile, constants, ConstantPoolScanner.u16(classFile, offset + 1))));
+                case 9, 10, 11 -> {
+                    var owner = className(classFile, constants, ConstantPoolScanner.u16(classFile, offset + 1));
+                    int nameAndType = constants[ConstantPoolScanner.u16(classFile, offset + 3)];
+                    var memberName = utf8(classFile, constants, ConstantPoolScanner.u16(classFile, nameAndType + 1));
+                    var descriptor = utf8(classFile, constants, ConstantPoolScanner.u16(classFile, nameAndType + 3));
+                    memberReferences.add(owner + "." + memberName + (tag == 9 ? ":" : "") + descriptor);
+                }
+                case 12 -> addDescriptor(classReferences, utf8(classFile, constants, ConstantPoolScanner.u16(classFile, offset + 3)));
+                case 16 -> addDescriptor(classReferences, utf8(classFile, constants, ConstantPoolScanner.u16(classFile, offset + 1)));
+                default -> {}
+            }
+        }
+        for (var descriptor : descriptors) {
+            addDescriptor(classReferences, descriptor);
+        }
+        return new Outline(entry, name, false, candidates, classReferences, memberReferences, collector, null);
+    }
+
+    private static String utf8(byte[] classFile, int[] constants, int index) {
+        int offset = constants[index];
+        if (offset == 0 || classFile[offset] != 1) {
+            throw new IllegalArgumentException("Constant " + index + " is not a UTF-8 string");
+        }
+        return ConstantPoolScanner.utf8(classFile, offset);
+    }
+
+    private static String className(byte[] classFile, int[] constants, int index) {
+        int offset = constants[index];
+        if (offset == 0 || classFile[offset] != 7) {
+            throw new IllegalArgumentException("Constant " + index + " is not a class");
+        }
+        return utf8(classFile, constants, ConstantPoolScanner.u16(classFile, offset + 1));
+    }
+
+    private static int u32(byte[] classFile, int offset) {
+        return (ConstantPoolScanner.u16(classFile, offset) << 16) | ConstantPoolScanner.u16(classFile, offset + 2);
+    }
+
+    private static void addType(Set<String> classReferences, Type type) {
+        switch (type.getSort()) {
+            case Type.ARRAY -> addType(classReferences, type.getElementType());
+            case Type.OBJECT -> classReferences.add(type.getInternalName());
+            case Type.METHOD -> {
+                for (var argument : type.getArgumentTypes()) {
+                    addType(classReferences, argument);
+                }
+                addType(classReferences, type.getReturnType());
+            }
+            default -> {}
+        }
+    }
+
+    private static void addDescriptor(Set<String> classReferences, String descriptor) {
+        addType(classReferences, descriptor.startsWith("(") ? Type.getMethodType(descriptor) : Type.getType(descriptor));
+    }
+
+    private static boolean isCandidateMethod(int access, String name) {
+        // Lambda deserialization is looked up reflectively, and only static or private methods escape virtual dispatch
+        return (access & Opcodes.ACC_SYNTHETIC) != 0 && (access & Opcodes.ACC_BRIDGE) == 0 && !name.equals("$deserializeLambda$")
+            && (access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) != 0;
+    }
+
+    private record Outline(ZipArchive.Entry entry, String name, boolean nestedInCode, Set<String> candidates, Set<String> classReferences, Set<String> memberReferences, CollectingVisitor collector, @Nullable ClassInfo info) {
+        private boolean referencesAny(Set<String> candidateClasses, Set<String> candidateMembers) {
+            for (var reference : classReferences) {
+                if (candidateClasses.contains(reference)) {
+                    return true;
+                }
+            }
+            for (var reference : memberReferences) {
+                if (candidateMembers.contains(reference)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private record ClassInfo(String entryName, String name, boolean candidate, Member structure, Map<String, Member> members, Set<String> nestedClasses, CollectingVisitor collector) {}
+
+    private record Member(boolean candidate, boolean bridge, Set<String> classReferences, Set<String> memberReferences) {}
+
+    private static final class Reachability {
+        private final Map<String, ClassInfo> classes;
+        private final Distribution distribution;
+        private final Set<String> excludedEntries;
+        private final Map<String, Set<String>> annotatedRemovals = new HashMap<>();
+        private final Set<String> liveClasses = new HashSet<>();
+        private final Set<String> liveMembers = new HashSet<>();
+        private final ArrayDeque<Member> pending = new ArrayDeque<>();
+
+        private Reachability(Map<String, ClassInfo> classes, Distribution distribution, Set<String> excludedEntries) {
+            this.classes = classes;
+            this.distribution = distribution;
+            this.excludedEntries = excludedEntries;
+        }
+
+        private Map<String, Removals> removals(List<ClassInfo> versioned) {
+            for (var info : classes.values()) {
+                if (!info.candidate && !removed(info)) {
+                    markLive(info);
+                }
+            }
+            for (var info : versioned) {
+                pending.add(info.structure);
+                pending.addAll(info.members.values());
+            }
+            while (!pending.isEmpty()) {
+                var member = pending.poll();
+                for (var reference : member.classReferences) {
+                    var info = classes.get(reference);
+                    if (info != null && !removed(info)) {
+                        markLive(info);
+                    }
+                }
+                for (var reference : member.memberReferences) {
+                    int separator = reference.indexOf('.');
+                    var info = classes.get(reference.substring(0, separator));
+                    if (info == null || removed(info)) {
+                        continue;
+                    }
+                    markLive(info);
+                    var key = reference.substring(separator + 1);
+                    var referenced = info.members.get(key);
+                    if (referenced != null && !annotated(info).contains(key)) {
+                        markLive(info, key, referenced);
+                    }
+                }
+            }
+
+            Map<String, Removals> removals = new HashMap<>();
+            Set<String> cascadedClasses = new HashSet<>();
+            for (var info : classes.values()) {
+                if (!removed(info) && !liveClasses.contains(info.name)) {
+                    cascadedClasses.add(info.name);
+                    removals.put(info.entryName, new Removals(true, Set.of(), Set.of(), Set.of()));
+                }
+            }
+            for (var info : classes.values()) {
+                if (removed(info) || cascadedClasses.contains(info.name)) {
+                    continue;
+                }
+                var annotated = annotated(info);
+                Set<String> methods = new HashSet<>();
+                Set<String> fields = new HashSet<>();
+                for (var member : info.members.entrySet()) {
+                    var key = member.getKey();
+                    if (member.getValue().candidate && !annotated.contains(key) && !liveMembers.contains(info.name + "." + key)) {
+                        (key.indexOf('(') >= 0 ? methods : fields).add(key);
+                    }
+                }
+                for (var member : info.members.entrySet()) {
+                    var key = member.getKey();
+                    if (member.getValue().bridge && !annotated.contains(key) && bridgesRemoved(info, key, member.getValue(), annotated, methods)) {
+                        methods.add(key);
+                    }
+                }
+                var nested = nestedRemovals(info, cascadedClasses);
+                if (!methods.isEmpty() || !fields.isEmpty() || !nested.isEmpty()) {
+                    removals.put(info.entryName, new Removals(false, methods, fields, nested));
+                }
+            }
+            for (var info : versioned) {
+                var nested = nestedRemovals(info, cascadedClasses);
+                if (!nested.isEmpty()) {
+                    removals.put(info.entryName, new Removals(false, Set.of(), Set.of(), nested));
+                }
+            }
+            return removals;
+        }
+
+        private static Set<String> nestedRemovals(ClassInfo info, Set<String> cascadedClasses) {
+            Set<String> nested = new HashSet<>();
+            for (var name : info.nestedClasses) {
+                if (cascadedClasses.contains(name)) {
+                    nested.add(name);
+                }
+            }
+            return nested;
+        }
+
+        private boolean bridgesRemoved(ClassInfo info, String key, Member bridge, Set<String> annotated, Set<String> cascaded) {
+            var prefix = info.name + "." + key.substring(0, key.indexOf('('));
+            for (var reference : bridge.memberReferences) {
+                if (reference.startsWith(prefix) && reference.charAt(prefix.length()) == '(') {
+                    var target = reference.substring(info.name.length() + 1);
+                    if (!target.equals(key) && (annotated.contains(target) || cascaded.contains(target))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean removed(ClassInfo info) {
+            return excludedEntries.contains(info.entryName) || info.collector.shouldRemove(distribution);
+        }
+
+        private Set<String> annotated(ClassInfo info) {
+            return annotatedRemovals.computeIfAbsent(info.name, name -> {
+                var removed = new HashSet<>(info.collector.removeMethods(distribution));
+                removed.addAll(info.collector.removeFields(distribution));
+                return removed;
+            });
+        }
+
+        private void markLive(ClassInfo info) {
+            if (!liveClasses.add(info.name)) {
+                return;
+            }
+            pending.add(info.structure);
+            var annotated = annotated(info);
+            for (var member : info.members.entrySet()) {
+                if (!member.getValue().candidate && !annotated.contains(member.getKey())) {
+                    markLive(info, member.getKey(), member.getValue());
+                }
+            }
+        }
+
+        private void markLive(ClassInfo info, String key, Member member) {
+            if (liveMembers.add(info.name + "." + key)) {
+                pending.add(member);
+            }
+        }
+    }
+
+    private static final class ReferenceCollector extends ClassVisitor {
+        private String name = "";
+        private final Set<String> structureClasses = new HashSet<>();
+        private final Member structure = new Member(false, false, structureClasses, Set.of());
+        private final Map<String, Member> members = new HashMap<>();
+        // Classes listed in InnerClasses or NestMembers, which does not keep them
+        private final Set<String> nestedClasses = new HashSet<>();
+
+        private ReferenceCollector() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.name = name;
+            if (superName != null) {
+                structureClasses.add(superName);
+            }
+            if (interfaces != null) {
+                structureClasses.addAll(List.of(interfaces));
+            }
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            if (!name.equals(this.name)) {
+                nestedClasses.add(name);
+            }
+        }
+
+        @Override
+        public void visitNestMember(String nestMember) {
+            nestedClasses.add(nestMember);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            var classReferences = new HashSet<String>();
+            addType(classReferences, Type.getType(descriptor));
+            members.put(name + ":" + descriptor, new Member((access & Opcodes.ACC_SYNTHETIC) != 0, false, classReferences, Set.of()));
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            var classReferences = new HashSet<String>();
+            var memberReferences = new HashSet<String>();
+            addType(classReferences, Type.getMethodType(descriptor));
+            if (exceptions != null) {
+                classReferences.addAll(List.of(exceptions));
+            }
+            members.put(name + descriptor, new Member(isCandidateMethod(access, name), (access & Opcodes.ACC_BRIDGE) != 0, classReferences, memberReferences));
+            return new MethodVisitor(Opcodes.ASM9) {
+                @Override
+                public void visitTypeInsn(int opcode, String type) {
+                    addType(classReferences, Type.getObjectType(type));
+                }
+
+                @Override
+                public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                    addType(classReferences, Type.getObjectType(owner));
+                    memberReferences.add(owner + "." + name + ":" + descriptor);
+                }
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                    addType(classReferences, Type.getObjectType(owner));
+                    memberReferences.add(owner + "." + name + descriptor);
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+                    addType(classReferences, Type.getMethodType(descriptor));
+                    addConstant(classReferences, memberReferences, bootstrapMethodHandle);
+                    for (var argument : bootstrapMethodArguments) {
+                        addConstant(classReferences, memberReferences, argument);
+                    }
+                }
+
+                @Override
+                public void visitLdcInsn(Object value) {
+                    addConstant(classReferences, memberReferences, value);
+                }
+
+                @Override
+                public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+                    addType(classReferences, Type.getType(descriptor));
+                }
+
+                @Override
+                public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+                    if (type != null) {
+                        classReferences.add(type);
+                    }
+                }
+            };
+        }
+
+        private static void addConstant(Set<String> classReferences, Set<String> memberReferences, Object constant) {
+            if (constant instanceof Type type) {
+                addType(classReferences, type);
+            } else if (constant instanceof Handle handle) {
+                addType(classReferences, Type.getObjectType(handle.getOwner()));
+                memberReferences.add(handle.getOwner() + "." + handle.getName() + (handle.getTag() <= Opcodes.H_PUTSTATIC ? ":" : "") + handle.getDesc());
+            } else if (constant instanceof ConstantDynamic dynamic) {
+                addType(classReferences, Type.getType(dynamic.getDescriptor()));
+                addConstant(classReferences, memberReferences, dynamic.getBootstrapMethod());
+                for (int i = 0; i < dynamic.getBootstrapMethodArgumentCount(); i++) {
+                    addConstant(classReferences, memberReferences, dynamic.getBootstrapMethodArgument(i));
+                }
+            }
+        }
+    }
+}
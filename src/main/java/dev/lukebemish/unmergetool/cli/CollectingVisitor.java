@@ -1,7 +1,7 @@
 package dev.lukebemish.unmergetool.cli;
 
+import dev.lukebemish.unmergetool.common.AnnotationMatcher;
 import dev.lukebemish.unmergetool.common.Distribution;
-import dev.lukebemish.unmergetool.common.EnumAnnotation;
 import org.jspecify.annotations.Nullable;
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassVisitor;
@@ -9,62 +9,129 @@
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 class CollectingVisitor extends ClassVisitor {
-    private final Distribution distribution;
-    
-    private boolean shouldRemove = false;
-    private Set<String> removeMethods = new HashSet<>();
-    private Set<String> removeFields = new HashSet<>();
-    
-    public boolean shouldRemove() {
-        return this.shouldRemove;
-    }
-    
-    public Set<String> removeMethods() {
-        return this.removeMethods;
-    }
-    
-    public Set<String> removeFields() {
-        return this.removeFields;
-    }
-    
-    protected CollectingVisitor(@Nullable ClassVisitor classVisitor, Distribution distribution) {
+    static final int CLIENT = 1;
+    static final int SERVER = 1 << 1;
+    // Above the side bits, each element also records which kinds of annotation marked it
+    private static final int KIND_SHIFT = 2;
+
+    private final AnnotationMatcher matcher;
+    private int classSides = 0;
+    private final Map<String, Integer> methodSides = new HashMap<>();
+    private final Map<String, Integer> fieldSides = new HashMap<>();
+
+    public boolean marksAnything() {
+        return this.classSides != 0 || !this.methodSides.isEmpty() || !this.fieldSides.isEmpty();
+    }
+
+    public boolean stripsAnything(Distribution distribution) {
+        return shouldRemove(distribution) || !removeMethods(distribution).isEmpty() || !removeFields(distribution).isEmpty();
+    }
+
+    public boolean shouldRemove(Distribution distribution) {
+        return excludes(distribution, this.classSides);
+    }
+
+    public Set<String> removeMethods(Distribution distribution) {
+        return excluded(distribution, this.methodSides);
+    }
+
+    public Set<String> removeFields(Distribution distribution) {
+        return excluded(distribution, this.fieldSides);
+    }
+
+    // A removed class counts once, rather than once for each of its members
+    public Map<String, Integer> removalsByKind(Distribution distribution) {
+        var counts = new HashMap<String, Integer>();
+        if (shouldRemove(distribution)) {
+            countKinds(counts, this.classSides);
+            return counts;
+        }
+        for (var sides : this.methodSides.values()) {
+            if (excludes(distribution, sides)) {
+                countKinds(counts, sides);
+            }
+        }
+        for (var sides : this.fieldSides.values()) {
+            if (excludes(distribution, sides)) {
+                countKinds(counts, sides);
+            }
+        }
+        return counts;
+    }
+
+    private void countKinds(Map<String, Integer> counts, int sides) {
+        var types = matcher.types();
+        for (int i = 0; i < types.size(); i++) {
+            if ((sides & 1 << (KIND_SHIFT + i)) != 0) {
+                counts.merge(types.get(i).name(), 1, Integer::sum);
+            }
+        }
+    }
+
+    static boolean excludes(Distribution distribution, int sides) {
+        return !distribution.allowClient && (sides & CLIENT) != 0 || !distribution.allowServer && (sides & SERVER) != 0;
+    }
+
+    private static Set<String> excluded(Distribution distribution, Map<String, Integer> sides) {
+        var excluded = new HashSet<String>();
+        for (var entry : sides.entrySet()) {
+            if (excludes(distribution, entry.getValue())) {
+                excluded.add(entry.getKey());
+            }
+        }
+        return excluded;
+    }
+
+    void markClass(int sides) {
+        this.classSides |= sides;
+    }
+
+    void markMethod(String nameAndDescriptor, int sides) {
+        this.methodSides.merge(nameAndDescriptor, sides, (a, b) -> a | b);
+    }
+
+    void markField(String nameAndDescriptor, int sides) {
+        this.fieldSides.merge(nameAndDescriptor, sides, (a, b) -> a | b);
+    }
+
+    static int sides(AnnotationMatcher.Match match, String value) {
+        var annotationType = match.type();
+        int kind = 1 << (KIND_SHIFT + match.kind());
+        if (value.equals(annotationType.clientValue())) {
+            return CLIENT | kind;
+        } else if (value.equals(annotationType.serverValue())) {
+            return SERVER | kind;
+        }
+        return 0;
+    }
+
+    protected CollectingVisitor(@Nullable ClassVisitor classVisitor, AnnotationMatcher matcher) {
         super(Opcodes.ASM9, classVisitor);
-        this.distribution = distribution;
+        this.matcher = matcher;
     }
 
     @Override
     public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
         var superVisitor = super.visitAnnotation(descriptor, visible);
-        var runnable = (Runnable) () -> shouldRemove = true;
-        for (var annotationType : EnumAnnotation.values()) {
-            if (descriptor.equals("L"+annotationType.annotationType.replace('.', '/')+";")) {
-                return new WatchingAnnotationVisitor(runnable, superVisitor, annotationType);
-            } else if (annotationType.repeatable != null && descriptor.equals("L"+annotationType.repeatable.replace('.', '/')+";")) {
-                return new RepeatableAnnotationVisitor(runnable, superVisitor, annotationType);
-            }
-        }
-        return superVisitor;
+        var match = matcher.match(descriptor);
+        return match == null ? superVisitor : watch(match, superVisitor, this::markClass);
     }
 
     @Override
     public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
         return new MethodVisitor(Opcodes.ASM9, super.visitMethod(access, name, descriptor, signature, exceptions)) {
             @Override
-            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-                var superVisitor = super.visitAnnotation(descriptor, visible);
-                var runnable = (Runnable) () -> removeMethods.add(name+descriptor);
-                for (var annotationType : EnumAnnotation.values()) {
-                    if (descriptor.equals("L"+annotationType.annotationType.replace('.', '/')+";")) {
-                        return new WatchingAnnotationVisitor(runnable, superVisitor, annotationType);
-                    } else if (annotationType.repeatable != null && descriptor.equals("L"+annotationType.repeatable.replace('.', '/')+";")) {
-                        return new RepeatableAnnotationVisitor(runnable, superVisitor, annotationType);
-                    }
-                }
-                return superVisitor;
+            public AnnotationVisitor visitAnnotation(String annotationDescriptor, boolean visible) {
+                var superVisitor = super.visitAnnotation(annotationDescriptor, visible);
+                var match = matcher.match(annotationDescriptor);
+                return match == null ? superVisitor : watch(match, superVisitor, side -> markMethod(name+descriptor, side));
             }
         };
     }
@@ -73,29 +140,26 @@ public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
     public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
         return new FieldVisitor(Opcodes.ASM9, super.visitField(access, name, descriptor, signature, value)) {
             @Override
-            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-                var superVisitor = super.visitAnnotation(descriptor, visible);
-                var runnable = (Runnable) () -> removeFields.add(name+":"+descriptor);
-                for (var annotationType : EnumAnnotation.values()) {
-                    if (descriptor.equals("L"+annotationType.annotationType.replace('.', '/')+";")) {
-                        return new WatchingAnnotationVisitor(runnable, superVisitor, annotationType);
-                    } else if (annotationType.repeatable != null && descriptor.equals("L"+annotationType.repeatable.replace('.', '/')+";")) {
-                        return new RepeatableAnnotationVisitor(runnable, superVisitor, annotationType);
-                    }
-                }
-                return superVisitor;
+            public AnnotationVisitor visitAnnotation(String annotationDescriptor, boolean visible) {
+                var superVisitor = super.visitAnnotation(annotationDescriptor, visible);
+                var match = matcher.match(annotationDescriptor);
+                return match == null ? superVisitor : watch(match, superVisitor, side -> markField(name+":"+descriptor, side));
             }
         };
     }
-    
+
+    private AnnotationVisitor watch(AnnotationMatcher.Match match, @Nullable AnnotationVisitor superVisitor, IntConsumer onSide) {
+        return match.container() ? new RepeatableAnnotationVisitor(onSide, superVisitor, match) : new WatchingAnnotationVisitor(onSide, superVisitor, match);
+    }
+
     private class RepeatableAnnotationVisitor extends AnnotationVisitor {
-        private final EnumAnnotation annotationType;
-        private final Runnable onRemove;
-        
-        protected RepeatableAnnotationVisitor(Runnable onRemove, AnnotationVisitor delegate, EnumAnnotation annotationType) {
+        private final AnnotationMatcher.Match match;
+        private final IntConsumer onSide;
+
+        protected RepeatableAnnotationVisitor(IntConsumer onSide, @Nullable AnnotationVisitor delegate, AnnotationMatcher.Match match) {
             super(Opcodes.ASM9, delegate);
-            this.annotationType = annotationType;
-            this.onRemove = onRemove;
+            this.match = match;
+            this.onSide = onSide;
         }
 
         @Override
@@ -103,27 +167,28 @@ public AnnotationVisitor visitArray(String name) {
             return new AnnotationVisitor(Opcodes.ASM9, super.visitArray(name)) {
                 @Override
                 public AnnotationVisitor visitAnnotation(String name, String descriptor) {
-                    return new WatchingAnnotationVisitor(onRemove, super.visitAnnotation(name, descriptor), annotationType);
+                    return new WatchingAnnotationVisitor(onSide, super.visitAnnotation(name, descriptor), match);
                 }
             };
         }
     }
 
-    private class WatchingAnnotationVisitor extends AnnotationVisitor {
-        private final Runnable onRemove;
-        private final EnumAnnotation annotationType;
+    private static class WatchingAnnotationVisitor extends AnnotationVisitor {
+        private final IntConsumer onSide;
+        private final AnnotationMatcher.Match match;
 
-        private WatchingAnnotationVisitor(Runnable onRemove, AnnotationVisitor delegate, EnumAnnotation annotationType) {
+        private WatchingAnnotationVisitor(IntConsumer onSide, @Nullable AnnotationVisitor delegate, AnnotationMatcher.Match match) {
             super(Opcodes.ASM9, delegate);
-            this.onRemove = onRemove;
-            this.annotationType = annotationType;
+            this.onSide = onSide;
+            this.match = match;
         }
 
         @Override
         public void visitEnum(String name, String descriptor, String value) {
-            if ("value".equals(name)) {
-                if (!distribution.allowClient && value.equals(annotationType.clientValue) || !distribution.allowServer && value.equals(annotationType.serverValue)) {
-                    onRemove.run();
+            if (match.type().annotationName().equals(name)) {
+                int sides = sides(match, value);
+                if (sides != 0) {
+                    onSide.accept(sides);
                 }
             }
         }
@@ -0,0 +1,33 @@
+package dev.lukebemish.unmergetool.cli;
+
+import picocli.CommandLine;
+
+import java.util.Locale;
+
+public record Compression(boolean stored, int level) {
+    public static final Compression STORED = new Compression(true, 0);
+
+    public Compression {
+        if (!stored && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException("Deflate level must be between 0 and 9: " + level);
+        }
+    }
+
+    public static Compression deflated(int level) {
+        return new Compression(false, level);
+    }
+
+    static final class Converter implements CommandLine.ITypeConverter<Compression> {
+        @Override
+        public Compression convert(String value) {
+            if (value.toUpperCase(Locale.ROOT).equals("STORED")) {
+                return STORED;
+            }
+            try {
+                return deflated(Integer.parseInt(value));
+            } catch (IllegalArgumentException e) {
+                throw new CommandLine.TypeConversionException("Expected STORED or a deflate level from 0 to 9, but got '" + value + "'");
+            }
+        }
+    }
+}
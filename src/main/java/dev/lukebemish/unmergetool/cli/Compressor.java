@@ -0,0 +1,79 @@
+package dev.lukebemish.unmergetool.cli;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Deflaters hold native memory, so they are pooled rather than created per entry
+final class Compressor implements AutoCloseable {
+    private final @Nullable Compression compression;
+    private final BufferPool pool;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+    Compressor(@Nullable Compression compression, BufferPool pool) {
+        this.compression = compression;
+        this.pool = pool;
+    }
+
+    @Nullable Compression compression() {
+        return compression;
+    }
+
+    boolean recompresses(ZipArchive.Entry entry) {
+        if (compression == null) {
+            return false;
+        }
+        // The level an entry was deflated at is not recorded, so deflated entries are always redone
+        return !compression.stored() || entry.method() != ZipArchive.STORED;
+    }
+
+    // Stored records hold contents itself, deflated ones a pooled buffer; a crc of -1 is computed here
+    Compressed compress(ZipArchive.Entry entry, byte[] contents, int length, long crc) {
+        if (crc < 0) {
+            var crc32 = new CRC32();
+            crc32.update(contents, 0, length);
+            crc = crc32.getValue();
+        }
+        // Deflating nothing only adds an empty block
+        boolean stored = length == 0 || (compression == null ? entry.method() == ZipArchive.STORED : compression.stored());
+        if (stored) {
+            return new Compressed(entry.withData(ZipArchive.STORED, crc, length, length), contents, length);
+        }
+        var deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(compression == null ? Deflater.DEFAULT_COMPRESSION : compression.level(), true);
+        }
+        try {
+            deflater.setInput(contents, 0, length);
+            deflater.finish();
+            // Enough for incompressible data, so the buffer almost never has to grow
+            var compressed = pool.acquire(length + (length >> 3) + (length >> 6) + 64);
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    var larger = pool.acquire(compressed.length * 2);
+                    System.arraycopy(compressed, 0, larger, 0, compressedLength);
+                    pool.release(compressed);
+                    compressed = larger;
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            return new Compressed(entry.withData(ZipArchive.DEFLATED, crc, compressedLength, length), compressed, compressedLength);
+        } finally {
+            deflater.reset();
+            deflaters.offer(deflater);
+        }
+    }
+
+    @Override
+    public void close() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+    }
+
+    record Compressed(ZipArchive.Entry header, byte[] data, int length) {}
+}
@@ -0,0 +1,86 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.AnnotationMatcher;
+
+// Any annotation on a class or its members has its descriptor in the constant pool, so a class with no match has
+// nothing to strip
+final class ConstantPoolScanner {
+    private ConstantPoolScanner() {}
+
+    // Malformed class files are reported as a possible match, so that they are left to ASM
+    static boolean mayReferenceAnnotations(AnnotationMatcher matcher, byte[] classFile) {
+        return mayReferenceAnnotations(matcher, classFile, classFile.length);
+    }
+
+    static boolean mayReferenceAnnotations(AnnotationMatcher matcher, byte[] classFile, int length) {
+        if (length < 10 || u16(classFile, 0) != 0xCAFE || u16(classFile, 2) != 0xBABE) {
+            return true;
+        }
+        try {
+            int end = walk(classFile, (index, offset) -> classFile[offset] != 1 || !matches(matcher, classFile, offset + 3, u16(classFile, offset + 1)));
+            return end < 0 || end > length;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+
+    // Returns the offset just past the pool, or -1 if the visitor stopped the walk or a tag is unknown
+    static int walk(byte[] classFile, ConstantVisitor visitor) {
+        int count = u16(classFile, 8);
+        int position = 10;
+        for (int i = 1; i < count; i++) {
+            if (!visitor.visit(i, position)) {
+                return -1;
+            }
+            int tag = classFile[position];
+            switch (tag) {
+                case 1 -> position += 3 + u16(classFile, position + 1);
+                case 7, 8, 16, 19, 20 -> position += 3;
+                case 15 -> position += 4;
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> position += 5;
+                case 5, 6 -> {
+                    position += 9;
+                    i++;
+                }
+                default -> {
+                    return -1;
+                }
+            }
+        }
+        return position;
+    }
+
+    interface ConstantVisitor {
+        boolean visit(int index, int offset);
+    }
+
+    private static boolean matches(AnnotationMatcher matcher, byte[] classFile, int offset, int length) {
+        if (length < 3 || classFile[offset] != 'L' || classFile[offset + length - 1] != ';') {
+            return false;
+        }
+        return matcher.matchesDescriptor(classFile, offset, length);
+    }
+
+    // Decodes modified UTF-8 as the JVM and ASM do, which differs from standard UTF-8 for NUL and supplementary characters
+    static String utf8(byte[] classFile, int offset) {
+        int current = offset + 3;
+        int end = current + u16(classFile, offset + 1);
+        var chars = new char[end - current];
+        int count = 0;
+        while (current < end) {
+            int c = classFile[current++];
+            if ((c & 0x80) == 0) {
+                chars[count++] = (char) (c & 0x7F);
+            } else if ((c & 0xE0) == 0xC0) {
+                chars[count++] = (char) (((c & 0x1F) << 6) + (classFile[current++] & 0x3F));
+            } else {
+                chars[count++] = (char) (((c & 0xF) << 12) + ((classFile[current++] & 0x3F) << 6) + (classFile[current++] & 0x3F));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    static int u16(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+}
@@ -0,0 +1,36 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.Distribution;
+import org.jspecify.annotations.Nullable;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+record DistributionPath(@Nullable Distribution distribution, Path path) {
+    Distribution distributionOr(@Nullable Distribution fallback, String option) {
+        if (distribution != null) {
+            return distribution;
+        }
+        if (fallback == null) {
+            throw new IllegalArgumentException("No distribution given for " + option + " " + path + "; use <distribution>=<path> or --distribution");
+        }
+        return fallback;
+    }
+
+    static final class Converter implements CommandLine.ITypeConverter<DistributionPath> {
+        @Override
+        public DistributionPath convert(String value) {
+            int separator = value.indexOf('=');
+            if (separator > 0) {
+                var prefix = value.substring(0, separator).toUpperCase(Locale.ROOT);
+                for (var distribution : Distribution.values()) {
+                    if (distribution.name().equals(prefix)) {
+                        return new DistributionPath(distribution, Path.of(value.substring(separator + 1)));
+                    }
+                }
+            }
+            return new DistributionPath(null, Path.of(value));
+        }
+    }
+}
@@ -0,0 +1,767 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.AnnotationMatcher;
+import dev.lukebemish.unmergetool.common.Distribution;
+import dev.lukebemish.unmergetool.common.StripIndex;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+
+final class JarProcessor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JarProcessor.class);
+
+    private static final CompletableFuture<Processed> END = CompletableFuture.completedFuture(new Processed(new Entry[0], List.of(), 0, null));
+    private static final List<String> NESTED_JAR_DIRECTORIES = List.of("META-INF/jars/", "META-INF/jarjar/");
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+    private static final int FINGERPRINT_FORMAT = 1;
+    private static final String FINGERPRINT_PREFIX = "unmergetool-options:";
+
+    private final Path input;
+    private final @Nullable Path previousInput;
+    private final List<Output> outputs = new ArrayList<>();
+    private final Executor executor;
+    private final ByteBudget budget;
+    private final BufferPool pool;
+    private final Compressor compressor;
+    private final AnnotationMatcher matcher;
+    private final long streamThreshold;
+    private final boolean reproducible;
+    private final boolean cascade;
+    private final @Nullable StripCache cache;
+    private final RunStats stats;
+    private final AtomicLong held = new AtomicLong();
+
+    JarProcessor(UnMergeTool.Job job, Executor executor, ByteBudget budget, BufferPool pool, Compressor compressor, AnnotationMatcher matcher, long streamThreshold, boolean reproducible, boolean cascade, @Nullable StripCache cache, RunStats stats) {
+        this.input = job.input().toAbsolutePath();
+        this.previousInput = job.previousInput() == null ? null : job.previousInput().toAbsolutePath();
+        for (var output : job.outputs().entrySet()) {
+            var targetClasses = job.targetClasses().get(output.getKey());
+            var stripIndex = job.stripIndexes().get(output.getKey());
+            var previous = job.previousOutputs().get(output.getKey());
+            outputs.add(new Output(output.getKey(), output.getValue().toAbsolutePath(), targetClasses == null ? null : targetClasses.toAbsolutePath(), stripIndex == null ? null : stripIndex.toAbsolutePath(), previous == null ? null : previous.toAbsolutePath()));
+        }
+        this.executor = executor;
+        this.budget = budget;
+        this.pool = pool;
+        this.compressor = compressor;
+        this.matcher = matcher;
+        this.streamThreshold = streamThreshold;
+        this.reproducible = reproducible;
+        this.cascade = cascade;
+        this.cache = cache;
+        this.stats = stats;
+    }
+
+    UnMergeTool.Result run() throws IOException {
+        stats.jobStarted();
+        try {
+            return process();
+        } finally {
+            stats.jobFinished();
+        }
+    }
+
+    private UnMergeTool.Result process() throws IOException {
+        for (var output : outputs) {
+            Files.createDirectories(output.path.getParent());
+        }
+
+        var previous = new ArrayList<ZipArchive>();
+        try (var archive = ZipArchive.open(input)) {
+            var included = new boolean[outputs.size()];
+            Arrays.fill(included, true);
+            var level = level(archive, "", included, reuse(archive, previous));
+            try {
+                for (var output : outputs) {
+                    output.writer = new ZipWriter(output.writePath);
+                    // The fingerprint depends on the tool version, so only outputs that may be reused record it
+                    if (output.previousPath != null) {
+                        output.writer.comment(fingerprint(output));
+                    }
+                }
+                write(level);
+            } finally {
+                for (var output : outputs) {
+                    if (output.writer != null) {
+                        output.writer.close();
+                        stats.outputWritten(output.writer.entryCount(), output.writer.size());
+                    }
+                }
+            }
+        } finally {
+            for (var archive : previous) {
+                archive.close();
+            }
+        }
+        for (var output : outputs) {
+            if (!output.writePath.equals(output.path)) {
+                Files.move(output.writePath, output.path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        Map<Distribution, List<String>> targetedClasses = new EnumMap<>(Distribution.class);
+        Map<Distribution, String> outputHashes = new EnumMap<>(Distribution.class);
+        for (var output : outputs) {
+            outputHashes.put(output.distribution, output.writer.contentHash());
+            List<String> targetedLines = new ArrayList<>(output.targeted);
+            targetedLines.sort(Comparator.naturalOrder());
+            targetedClasses.put(output.distribution, List.copyOf(targetedLines));
+            if (output.targetClasses != null) {
+                Files.createDirectories(output.targetClasses.getParent());
+                Files.write(output.targetClasses, targetedLines);
+            }
+            if (output.stripIndex != null) {
+                new StripIndex(output.removals).write(output.stripIndex);
+            }
+        }
+        return new UnMergeTool.Result(targetedClasses, outputHashes);
+    }
+
+    private void write(Level level) throws IOException {
+        // The byte budget, not the queue, bounds how much may be in flight, so scheduling blocks once the writer falls
+        // behind
+        BlockingQueue<CompletableFuture<Processed>> pending = new LinkedBlockingQueue<>();
+        var scheduler = new Thread(() -> scheduleAll(level, pending), "unmergetool-scheduler");
+        scheduler.setDaemon(true);
+        scheduler.start();
+        var copyBuffer = pool.acquire(COPY_BUFFER_SIZE);
+        var writers = new ZipWriter[outputs.size()];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = outputs.get(i).writer;
+        }
+        // The innermost jar being written is on top
+        var frames = new ArrayDeque<Frame>();
+        frames.push(new Frame(level, writers, null));
+        boolean completed = false;
+        try {
+            while (true) {
+                long waitStart = stats.wallTime();
+                var next = pending.take();
+                if (next == END) {
+                    break;
+                }
+                var processed = next.join();
+                stats.waited(RunStats.Wait.WRITER, waitStart);
+                var nested = processed.nested();
+                if (nested != null) {
+                    if (nested.start()) {
+                        frames.push(openNested(nested.level()));
+                    } else {
+                        var frame = frames.pop();
+                        closeNested(frame, frames.element(), nested.header());
+                    }
+                    continue;
+                }
+                var frame = frames.element();
+                long wall = stats.wallTime();
+                long cpu = stats.cpuTime();
+                var entriesOut = processed.entries();
+                for (int i = 0; i < entriesOut.length; i++) {
+                    var entryOut = entriesOut[i];
+                    if (entryOut != null) {
+                        entryOut.writeTo(frame.writers()[i], frame.level().archive(), copyBuffer, reproducible);
+                    }
+                }
+                stats.phase(RunStats.Phase.WRITE, wall, cpu);
+                for (var buffer : processed.buffers()) {
+                    pool.release(buffer);
+                }
+                held.addAndGet(-processed.weight());
+                budget.release(processed.weight());
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing " + input);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            } else if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            } else if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        } finally {
+            scheduler.interrupt();
+            if (!completed) {
+                // Entries not yet started on a shared executor would otherwise still run against the closed archive
+                for (var future : pending) {
+                    future.cancel(false);
+                }
+            }
+            awaitTermination(scheduler);
+            pool.release(copyBuffer);
+            // Whatever this job still holds would otherwise be lost to the other jobs sharing the budget
+            budget.release(held.getAndSet(0));
+        }
+    }
+
+    private static void awaitTermination(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Frame openNested(Level level) throws IOException {
+        var writers = new ZipWriter[outputs.size()];
+        var contents = new ByteArrayOutputStream[outputs.size()];
+        for (int i = 0; i < writers.length; i++) {
+            if (level.included()[i]) {
+                contents[i] = new ByteArrayOutputStream();
+                writers[i] = new ZipWriter(contents[i]);
+            }
+        }
+        return new Frame(level, writers, contents);
+    }
+
+    private void closeNested(Frame frame, Frame parent, ZipArchive.Entry header) throws IOException {
+        long wall = stats.wallTime();
+        long cpu = stats.cpuTime();
+        for (int i = 0; i < frame.writers().length; i++) {
+            var writer = frame.writers()[i];
+            if (writer == null) {
+                continue;
+            }
+            writer.close();
+            var contents = frame.contents()[i].toByteArray();
+            var compressed = compressor.compress(header, contents, contents.length, -1);
+            parent.writers()[i].writeRaw(reproducible ? compressed.header().normalized() : compressed.header(), compressed.data(), compressed.length());
+            if (compressed.data() != contents) {
+                pool.release(compressed.data());
+            }
+        }
+        stats.phase(RunStats.Phase.DEFLATE, wall, cpu);
+    }
+
+    private List<Set<String>> excludedClasses(ZipArchive archive) throws IOException {
+        var manifestEntry = archive.entry("META-INF/MANIFEST.MF");
+        var excludedClasses = new ArrayList<Set<String>>();
+        if (manifestEntry == null) {
+            for (int i = 0; i < outputs.size(); i++) {
+                excludedClasses.add(Set.of());
+            }
+            return excludedClasses;
+        }
+        Manifest manifest;
+        try (var is = new ByteArrayInputStream(archive.read(manifestEntry))) {
+            manifest = new Manifest(is);
+        }
+        for (var output : outputs) {
+            excludedClasses.add(output.distribution.excludedEntries(manifest));
+        }
+        return excludedClasses;
+    }
+
+    private void scheduleAll(Level level, BlockingQueue<CompletableFuture<Processed>> pending) {
+        try {
+            try {
+                scheduleEntries(level, pending);
+            } catch (RuntimeException e) {
+                pending.put(CompletableFuture.failedFuture(e));
+                return;
+            }
+            pending.put(END);
+        } catch (InterruptedException e) {
+            // The writer has given up; nothing is left to hand entries to.
+        }
+    }
+
+    private void scheduleEntries(Level level, BlockingQueue<CompletableFuture<Processed>> pending) throws InterruptedException {
+        for (var entry : entries(level.archive())) {
+            var reused = level.reuse() == null ? null : reused(level, level.reuse(), entry);
+            if (reused != null) {
+                stats.entryRead(entry.compressedSize(), entry.name().endsWith(".class"));
+                stats.entryReused();
+                pending.put(CompletableFuture.completedFuture(new Processed(reused, List.of(), 0, null)));
+                continue;
+            }
+            var nested = isNestedJar(entry) ? nestedLevel(level, entry) : null;
+            if (nested != null) {
+                pending.put(CompletableFuture.completedFuture(new Processed(new Entry[0], List.of(), 0, new Nested(nested, entry, true))));
+                scheduleEntries(nested, pending);
+                pending.put(CompletableFuture.completedFuture(new Processed(new Entry[0], List.of(), 0, new Nested(nested, entry, false))));
+                continue;
+            }
+            long weight = weight(entry);
+            long taken = budget.tryAcquire(weight);
+            if (taken < 0) {
+                long blocked = stats.wallTime();
+                taken = budget.acquire(weight);
+                stats.waited(RunStats.Wait.SCHEDULER, blocked);
+            }
+            held.addAndGet(taken);
+            if (streams(entry)) {
+                stats.entryRead(entry.compressedSize(), false);
+                var results = passthrough(level, new Entry[outputs.size()], new Entry(entry, null, 0), entry.name());
+                pending.put(CompletableFuture.completedFuture(new Processed(results, List.of(), taken, null)));
+            } else {
+                long submitted = stats.wallTime();
+                long weightTaken = taken;
+                pending.put(CompletableFuture.supplyAsync(() -> timedProcessEntry(level, entry, submitted, weightTaken), executor));
+            }
+        }
+    }
+
+    private static boolean isNestedJar(ZipArchive.Entry entry) {
+        return entry.name().endsWith(".jar") && NESTED_JAR_DIRECTORIES.stream().anyMatch(entry.name()::startsWith);
+    }
+
+    // Nested jars are held outside the byte budget, so that their entries can always be scheduled however deeply they
+    // are nested
+    private @Nullable Level nestedLevel(Level parent, ZipArchive.Entry entry) {
+        var included = new boolean[outputs.size()];
+        boolean anyIncluded = false;
+        for (int i = 0; i < included.length; i++) {
+            included[i] = !parent.excludes(i, entry.name());
+            anyIncluded |= included[i];
+        }
+        if (!anyIncluded) {
+            return null;
+        }
+        byte[] contents;
+        try {
+            contents = parent.archive().read(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            var archive = ZipArchive.open(contents);
+            stats.entryRead(entry.compressedSize(), false);
+            return level(archive, parent.prefix() + entry.name() + "!/", included, null);
+        } catch (IOException e) {
+            LOGGER.warn("Copying {}{} in {} as it is, as it could not be read as a jar", parent.prefix(), entry.name(), input, e);
+            return null;
+        }
+    }
+
+    private Level level(ZipArchive archive, String prefix, boolean[] included, @Nullable Reuse reuse) throws IOException {
+        var excludedClasses = excludedClasses(archive);
+        @Nullable CascadeAnalysis cascadeAnalysis = null;
+        if (cascade) {
+            var distributions = outputs.stream().map(output -> output.distribution).toList();
+            cascadeAnalysis = CascadeAnalysis.analyze(archive, distributions, excludedClasses, matcher, executor, stats);
+            if (cascadeAnalysis == null) {
+                LOGGER.warn("Not cascading removals in {}{}", input, prefix.isEmpty() ? "" : "!/" + prefix);
+            }
+        }
+        return new Level(archive, prefix, included, excludedClasses, cascadeAnalysis, reuse);
+    }
+
+    // A previous output is only reused if its fingerprint shows it was written with the same options. An output whose
+    // previous output is at its own path is written next to it and moved into place once written.
+    private @Nullable Reuse reuse(ZipArchive archive, List<ZipArchive> opened) throws IOException {
+        if (previousInput == null) {
+            return null;
+        }
+        var previous = openPrevious(previousInput);
+        if (previous == null) {
+            return null;
+        }
+        opened.add(previous);
+        // Which entries each output excludes depends on the manifest
+        if (!sameData(archive.entry("META-INF/MANIFEST.MF"), previous.entry("META-INF/MANIFEST.MF"))) {
+            LOGGER.info("Processing {} in full, as its manifest has changed since {}", input, previousInput);
+            return null;
+        }
+        var previousOutputs = new ZipArchive[outputs.size()];
+        for (int i = 0; i < previousOutputs.length; i++) {
+            var output = outputs.get(i);
+            if (output.previousPath == null) {
+                continue;
+            }
+            var previousOutput = openPrevious(output.previousPath);
+            if (previousOutput == null) {
+                continue;
+            }
+            if (!previousOutput.comment().equals(fingerprint(output))) {
+                LOGGER.info("Not reusing {} for {}, as it was not written with the same options", output.previousPath, input);
+                previousOutput.close();
+                continue;
+            }
+            previousOutputs[i] = previousOutput;
+            opened.add(previousOutput);
+            if (Files.exists(output.path) && Files.isSameFile(output.path, output.previousPath)) {
+                output.writePath = output.path.resolveSibling(output.path.getFileName() + ".tmp");
+            }
+        }
+        return new Reuse(previous, previousOutputs);
+    }
+
+    private String fingerprint(Output output) {
+        var version = JarProcessor.class.getPackage().getImplementationVersion();
+        var options = new StringBuilder().append(FINGERPRINT_FORMAT).append('\n').append(version == null ? "dev" : version).append('\n')
+            .append(output.distribution).append('\n')
+            .append(compressor.compression()).append('\n')
+            .append(cascade).append('\n')
+            .append(reproducible).append('\n');
+        StripCache.appendTypes(options, matcher);
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            return FINGERPRINT_PREFIX + HexFormat.of().formatHex(digest.digest(options.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private @Nullable ZipArchive openPrevious(Path path) {
+        try {
+            return ZipArchive.open(path);
+        } catch (NoSuchFileException e) {
+            LOGGER.info("Not reusing {} for {}, as it does not exist", path, input);
+        } catch (IOException e) {
+            LOGGER.warn("Not reusing {} for {}, as it could not be read", path, input, e);
+        }
+        return null;
+    }
+
+    private static boolean sameData(ZipArchive.@Nullable Entry entry, ZipArchive.@Nullable Entry other) {
+        if (entry == null || other == null) {
+            return entry == other;
+        }
+        return entry.crc() == other.crc() && entry.size() == other.size();
+    }
+
+    private @Nullable Entry @Nullable [] reused(Level level, Reuse reuse, ZipArchive.Entry entry) {
+        var name = entry.name();
+        var before = reuse.input().entry(name);
+        if (!sameData(entry, before) || isNestedJar(entry) || level.cascade() != null && level.cascade().affects(name)) {
+            return null;
+        }
+        boolean isClass = name.endsWith(".class");
+        var results = new Entry[outputs.size()];
+        var stripped = new boolean[outputs.size()];
+        for (int i = 0; i < results.length; i++) {
+            if (level.excludes(i, name)) {
+                continue;
+            }
+            var previousOutput = reuse.outputs()[i];
+            if (previousOutput == null) {
+                return null;
+            }
+            var after = previousOutput.entry(name);
+            stripped[i] = !sameData(after, before);
+            // Only classes are ever stripped, and only by their own annotations unless cascading
+            if (stripped[i] && (!isClass || level.cascade() != null || outputs.get(i).stripIndex != null)) {
+                return null;
+            }
+            results[i] = after == null ? null : new Entry(after, null, 0, previousOutput);
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (stripped[i]) {
+                outputs.get(i).targeted.add(level.prefix() + name);
+            }
+        }
+        return results;
+    }
+
+    private List<ZipArchive.Entry> entries(ZipArchive archive) {
+        if (!reproducible) {
+            return archive.entries();
+        }
+        // The manifest stays first, where JarInputStream looks for it
+        var entries = new ArrayList<>(archive.entries());
+        entries.sort(Comparator.comparing((ZipArchive.Entry entry) -> switch (entry.name()) {
+            case "META-INF/" -> 0;
+            case "META-INF/MANIFEST.MF" -> 1;
+            default -> 2;
+        }).thenComparing(ZipArchive.Entry::name));
+        return entries;
+    }
+
+    private boolean streams(ZipArchive.Entry entry) {
+        return !entry.name().endsWith(".class") && entry.compressedSize() > streamThreshold && !compressor.recompresses(entry);
+    }
+
+    private long weight(ZipArchive.Entry entry) {
+        if (streams(entry)) {
+            // Copied through the writer's fixed buffer
+            return 0;
+        } else if (!entry.name().endsWith(".class")) {
+            // Recompressing needs the inflated contents and a new compressed copy
+            return entry.compressedSize() + (compressor.recompresses(entry) ? entry.size() * 2 : 0);
+        }
+        // The compressed and inflated class, and possibly a rewritten and compressed copy for every output
+        return entry.compressedSize() + entry.size() * (1 + 2L * outputs.size());
+    }
+
+    private Processed timedProcessEntry(Level level, ZipArchive.Entry zipEntry, long submitted, long weight) {
+        stats.waited(RunStats.Wait.WORKER, submitted);
+        long start = stats.wallTime();
+        try {
+            return processEntry(level, zipEntry, weight);
+        } finally {
+            stats.entryProcessed(input, level.prefix() + zipEntry.name(), stats.wallTime() - start, zipEntry.name().endsWith(".class"));
+        }
+    }
+
+    private Processed processEntry(Level level, ZipArchive.Entry zipEntry, long weight) {
+        var name = zipEntry.name();
+        var results = new Entry[outputs.size()];
+        boolean isClass = name.endsWith(".class");
+        stats.entryRead(zipEntry.compressedSize(), isClass);
+        if (excludedEverywhere(level, name)) {
+            return new Processed(results, List.of(), weight, null);
+        }
+        var buffers = new ArrayList<byte[]>();
+        int rawLength = Math.toIntExact(zipEntry.compressedSize());
+        var raw = pool.acquire(rawLength);
+        buffers.add(raw);
+        long wall = stats.wallTime();
+        long cpu = stats.cpuTime();
+        try {
+            level.archive().readRaw(zipEntry, raw);
+            if (!isClass && !compressor.recompresses(zipEntry)) {
+                stats.phase(RunStats.Phase.READ, wall, cpu);
+                return new Processed(passthrough(level, results, new Entry(zipEntry, raw, rawLength), name), buffers, weight, null);
+            }
+            int length = Math.toIntExact(zipEntry.size());
+            var contents = raw;
+            if (zipEntry.method() != ZipArchive.STORED) {
+                contents = pool.acquire(length);
+                buffers.add(contents);
+                ZipArchive.inflate(zipEntry, raw, rawLength, contents);
+            }
+            stats.phase(RunStats.Phase.READ, wall, cpu);
+            var source = new Source(zipEntry, raw, rawLength, contents, length, buffers);
+            if (isClass) {
+                processClass(level, source, results);
+            } else {
+                passthrough(level, results, source.unchanged(), name);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Processed(results, buffers, weight, null);
+    }
+
+    private boolean excludedEverywhere(Level level, String name) {
+        for (int i = 0; i < outputs.size(); i++) {
+            if (!level.excludes(i, name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void processClass(Level level, Source source, @Nullable Entry[] results) {
+        var name = source.header.name();
+        var contents = source.contents;
+        int length = source.length;
+        long wall = stats.wallTime();
+        long cpu = stats.cpuTime();
+        var cascade = level.cascade();
+        boolean cascades = cascade != null && cascade.affects(name);
+        if (!cascades && !ConstantPoolScanner.mayReferenceAnnotations(matcher, contents, length)) {
+            stats.phase(RunStats.Phase.COLLECT, wall, cpu);
+            passthrough(level, results, source.unchanged(), name);
+            return;
+        }
+        stats.phase(RunStats.Phase.COLLECT, wall, cpu);
+        wall = stats.wallTime();
+        cpu = stats.cpuTime();
+        var key = cache == null ? null : cache.key(contents, length);
+        if (key != null) {
+            stats.phase(RunStats.Phase.CACHE, wall, cpu);
+        }
+        CollectingVisitor collector = null;
+        for (int i = 0; i < results.length; i++) {
+            var output = outputs.get(i);
+            if (level.excludes(i, name)) {
+                continue;
+            }
+            @Nullable StripResult result = null;
+            if (key != null) {
+                wall = stats.wallTime();
+                cpu = stats.cpuTime();
+                result = cache.get(key, output.distribution);
+                stats.phase(RunStats.Phase.CACHE, wall, cpu);
+                stats.cacheLookup(result != null);
+            }
+            if (result == null) {
+                if (collector == null) {
+                    wall = stats.wallTime();
+                    cpu = stats.cpuTime();
+                    collector = AnnotationScanner.collect(matcher, contents, length);
+                    stats.phase(RunStats.Phase.COLLECT, wall, cpu);
+                }
+                wall = stats.wallTime();
+                cpu = stats.cpuTime();
+                result = collector.marksAnything() ? StripResult.strip(contents, length, collector, output.distribution) : StripResult.UNCHANGED;
+                stats.phase(RunStats.Phase.REWRITE, wall, cpu);
+                if (key != null) {
+                    wall = stats.wallTime();
+                    cpu = stats.cpuTime();
+                    cache.put(key, output.distribution, result);
+                    stats.phase(RunStats.Phase.CACHE, wall, cpu);
+                }
+            }
+            var cascaded = cascades ? cascade.removals(i, name) : null;
+            if (cascaded != null) {
+                wall = stats.wallTime();
+                cpu = stats.cpuTime();
+                result = result.withCascaded(cascaded, contents, length);
+                stats.phase(RunStats.Phase.CASCADE, wall, cpu);
+            }
+            stats.stripped(output.distribution, result);
+            if (!result.stripsAnything()) {
+                // Dropping cascaded classes from the attributes listing them rewrites a class without stripping it
+                results[i] = result.contents() == null ? source.unchanged() : source.compress(result.contents(), result.contents().length, -1);
+                continue;
+            }
+            output.targeted.add(level.prefix() + name);
+            // The JST transformer looks classes up by binary name alone, which classes of nested jars cannot be found by
+            if (output.stripIndex != null && level.prefix().isEmpty()) {
+                output.removals.put(name.substring(0, name.length() - ".class".length()), indexEntry(result));
+            }
+            if (result.contents() != null) {
+                results[i] = source.compress(result.contents(), result.contents().length, -1);
+            }
+        }
+    }
+
+    private static StripIndex.Entry indexEntry(StripResult result) {
+        // Fields are keyed by name and descriptor when stripping, but source has no descriptors to match them by
+        var fields = result.removeFields().stream()
+            .map(field -> field.substring(0, field.indexOf(':')))
+            .collect(Collectors.toSet());
+        return new StripIndex.Entry(result.removeClass(), result.removeMethods(), fields);
+    }
+
+    private @Nullable Entry[] passthrough(Level level, @Nullable Entry[] results, Entry entry, String name) {
+        for (int i = 0; i < results.length; i++) {
+            if (!level.excludes(i, name)) {
+                results[i] = entry;
+            }
+        }
+        return results;
+    }
+
+    private static final class Output {
+        private final Distribution distribution;
+        private final Path path;
+        private final @Nullable Path targetClasses;
+        private final @Nullable Path stripIndex;
+        private final @Nullable Path previousPath;
+        // Where the output is written before being moved into place, if not at its path
+        private Path writePath;
+        private final Set<String> targeted = ConcurrentHashMap.newKeySet();
+        private final Map<String, StripIndex.Entry> removals = new ConcurrentHashMap<>();
+        private @Nullable ZipWriter writer;
+
+        private Output(Distribution distribution, Path path, @Nullable Path targetClasses, @Nullable Path stripIndex, @Nullable Path previousPath) {
+            this.distribution = distribution;
+            this.path = path;
+            this.targetClasses = targetClasses;
+            this.stripIndex = stripIndex;
+            this.previousPath = previousPath;
+            this.writePath = path;
+        }
+    }
+
+    private final class Source {
+        private final ZipArchive.Entry header;
+        private final byte[] raw;
+        private final int rawLength;
+        private final byte[] contents;
+        private final int length;
+        private final List<byte[]> buffers;
+        private @Nullable Entry unchanged;
+
+        private Source(ZipArchive.Entry header, byte[] raw, int rawLength, byte[] contents, int length, List<byte[]> buffers) {
+            this.header = header;
+            this.raw = raw;
+            this.rawLength = rawLength;
+            this.contents = contents;
+            this.length = length;
+            this.buffers = buffers;
+        }
+
+        Entry unchanged() {
+            if (unchanged == null) {
+                unchanged = compressor.recompresses(header) ? compress(contents, length, header.crc()) : new Entry(header, raw, rawLength);
+            }
+            return unchanged;
+        }
+
+        Entry compress(byte[] data, int dataLength, long crc) {
+            long wall = stats.wallTime();
+            long cpu = stats.cpuTime();
+            var compressed = compressor.compress(header, data, dataLength, crc);
+            if (compressed.data() != data) {
+                buffers.add(compressed.data());
+            }
+            stats.phase(RunStats.Phase.DEFLATE, wall, cpu);
+            return new Entry(compressed.header(), compressed.data(), compressed.length());
+        }
+    }
+
+    private record Level(ZipArchive archive, String prefix, boolean[] included, List<Set<String>> excludedClasses, @Nullable CascadeAnalysis cascade, @Nullable Reuse reuse) {
+        boolean excludes(int output, String name) {
+            return !included[output] || excludedClasses.get(output).contains(name);
+        }
+    }
+
+    private record Frame(Level level, @Nullable ZipWriter[] writers, @Nullable ByteArrayOutputStream @Nullable [] contents) {}
+
+    private record Reuse(ZipArchive input, @Nullable ZipArchive[] outputs) {}
+
+    private record Nested(Level level, ZipArchive.Entry header, boolean start) {}
+
+    private record Processed(@Nullable Entry[] entries, List<byte[]> buffers, long weight, @Nullable Nested nested) {}
+
+    // Data is held in the first length bytes of data, or streamed from source, or from the input if there is no source
+    private record Entry(ZipArchive.Entry header, byte @Nullable [] data, int length, @Nullable ZipArchive source) {
+        Entry(ZipArchive.Entry header, byte @Nullable [] data, int length) {
+            this(header, data, length, null);
+        }
+
+        void writeTo(ZipWriter writer, ZipArchive archive, byte[] copyBuffer, boolean normalized) throws IOException {
+            var written = normalized ? header.normalized() : header;
+            if (data == null) {
+                writer.writeRaw(written, source == null ? archive : source, copyBuffer);
+            } else {
+                writer.writeRaw(written, data, length);
+            }
+        }
+    }
+}
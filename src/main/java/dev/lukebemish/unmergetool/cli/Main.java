@@ -1,51 +1,92 @@
 package dev.lukebemish.unmergetool.cli;
 
+import dev.lukebemish.unmergetool.common.AnnotationMatcher;
 import dev.lukebemish.unmergetool.common.Distribution;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
+import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashSet;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.Map;
 
 @CommandLine.Command(name = "unmergetool", mixinStandardHelpOptions = true, description = "Strip out elements from improper distributions from a jar")
 public class Main implements Runnable {
     private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
 
-    @CommandLine.Option(names = "--input", description = "Input jar", required = true)
-    Path input;
+    @CommandLine.Spec
+    CommandLine.Model.CommandSpec spec;
 
-    @CommandLine.Option(names = "--output", description = "Output jar", required = true)
-    Path output;
+    @CommandLine.Option(names = "--input", description = "Input jar", required = false)
+    @Nullable Path input;
 
-    @CommandLine.Option(names = "--target-classes", description = "Output list of classes targeted", required = false)
-    Path targetClasses;
+    @CommandLine.Option(names = "--input-dir", description = "Directory of input jars to process at once, sharing one pool of threads; --output, --target-classes and --strip-index then name directories to mirror it into", required = false)
+    @Nullable Path inputDir;
 
-    @CommandLine.Option(names = "--distribution", description = "The distribution to keep elements from", required = true)
-    Distribution distribution;
+    @CommandLine.Option(names = "--input-glob", description = "Glob, relative to --input-dir, selecting the jars to process")
+    String inputGlob = "**.jar";
 
-    @CommandLine.Option(names = "--batch-size", description = "How many class files to process at once")
-    int batchSize = Runtime.getRuntime().availableProcessors();
+    @CommandLine.Option(names = "--batch", description = "File listing jobs to process at once, sharing one pool of threads; each line holds the --input, --output, --target-classes, --strip-index, --previous-input, --previous-output and --distribution options of one job", required = false)
+    @Nullable Path batch;
+
+    @CommandLine.Option(names = "--output", description = "Output jar, as <path> or <distribution>=<path>; may be repeated to write several distributions at once", required = false, converter = DistributionPath.Converter.class)
+    List<DistributionPath> outputs = List.of();
+
+    @CommandLine.Option(names = "--target-classes", description = "Output list of classes targeted, as <path> or <distribution>=<path>", required = false, converter = DistributionPath.Converter.class)
+    List<DistributionPath> targetClasses = List.of();
+
+    @CommandLine.Option(names = "--strip-index", description = "Output binary index of the classes and members stripped, for the JST transformer, as <path> or <distribution>=<path>; classes of nested jars are left out", required = false, converter = DistributionPath.Converter.class)
+    List<DistributionPath> stripIndexes = List.of();
+
+    @CommandLine.Option(names = "--previous-input", description = "Input jar the --previous-output jars were written from; entries unchanged since it are copied from them instead of being processed again")
+    @Nullable Path previousInput;
+
+    @CommandLine.Option(names = "--previous-output", description = "Output jar written from --previous-input with the same options, as <path> or <distribution>=<path>; may be the same path as --output. Only outputs written with a --previous-output of their own can be reused, as only those record the options they were written with", required = false, converter = DistributionPath.Converter.class)
+    List<DistributionPath> previousOutputs = List.of();
+
+    @CommandLine.Option(names = "--distribution", description = "The distribution to keep elements from, for outputs not qualified by a distribution", required = false)
+    @Nullable Distribution distribution;
+
+    @CommandLine.Option(names = "--in-flight-bytes", description = "Roughly how much entry data may be held between reading and writing at once, in bytes or with a K, M or G suffix", converter = ByteSizeConverter.class)
+    long inFlightBytes = 64L << 20;
+
+    @CommandLine.Option(names = "--stream-threshold", description = "Compressed size above which non-class entries are copied straight to the output without being held in memory, in bytes or with a K, M or G suffix", converter = ByteSizeConverter.class)
+    long streamThreshold = 1L << 20;
+
+    @CommandLine.Option(names = "--compression", description = "Compression of every output entry, as STORED or a deflate level from 0 to 9; by default entries keep the compression they had", converter = Compression.Converter.class)
+    @Nullable Compression compression;
+
+    @CommandLine.Option(names = "--reproducible", description = "Write entries in a fixed order with normalized timestamps and metadata and fixed compression, and write the SHA-256 of each output jar next to it as <output>.sha256")
+    boolean reproducible;
+
+    @CommandLine.Option(names = "--annotations", description = "File of extra annotation types to strip by, one per line as <annotation> <attribute> <client value> <server value> [<repeatable container>]")
+    @Nullable Path annotations;
+
+    @CommandLine.Option(names = "--cascade", description = "Also strip anonymous and local classes and synthetic members, such as lambda bodies, accessors and bridges, left unreachable by stripping")
+    boolean cascade;
+
+    @CommandLine.Option(names = "--threads", description = "How many threads to process entries on")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @CommandLine.Option(names = "--concurrent-jobs", description = "How many jars of a batch may be open and writing at once")
+    int concurrentJobs = Runtime.getRuntime().availableProcessors();
+
+    @CommandLine.Option(names = "--cache-dir", description = "Directory to cache per-class results in between runs; may be shared by concurrent runs")
+    @Nullable Path cacheDir;
+
+    @CommandLine.Option(names = "--cache-size", description = "Maximum size of the cache before least recently used results are evicted, in bytes or with a K, M or G suffix", converter = ByteSizeConverter.class)
+    long cacheSize = 512L << 20;
+
+    @CommandLine.Option(names = "--stats", description = "File to write a JSON report of timings and counts for the run to")
+    @Nullable Path stats;
+
+    @CommandLine.Option(names = "--stats-slowest", description = "How many of the slowest classes to list in the --stats report")
+    int statsSlowest = 10;
 
     public static void main(String[] args) {
         var exitCode = new CommandLine(new Main()).execute(args);
@@ -54,143 +95,108 @@ public static void main(String[] args) {
 
     @Override
     public void run() {
-        input = input.toAbsolutePath();
-        output = output.toAbsolutePath();
-
+        List<UnMergeTool.Job> jobs;
+        UnMergeTool.Builder builder;
+        @Nullable RunStats runStats = null;
         try {
-            Files.createDirectories(output.getParent());
+            jobs = jobs();
+            builder = UnMergeTool.builder()
+                .threads(threads)
+                .inFlightBytes(inFlightBytes)
+                .streamThreshold(streamThreshold)
+                .reproducible(reproducible)
+                .cascade(cascade)
+                .concurrentJobs(concurrentJobs);
+            if (compression != null) {
+                builder.compression(compression);
+            }
+            if (annotations != null) {
+                builder.annotations(AnnotationMatcher.withConfig(annotations));
+            }
+            if (cacheDir != null) {
+                builder.cache(cacheDir, cacheSize);
+            }
+            if (stats != null) {
+                runStats = new RunStats(statsSlowest);
+                builder.stats(runStats);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new CommandLine.ParameterException(spec.commandLine(), e.getMessage(), e);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
 
-        if (targetClasses != null) {
-            targetClasses = targetClasses.toAbsolutePath();
-        }
-        var targeted = new HashSet<String>();
-
-        try (var is = Files.newInputStream(input);
-             var os = Files.newOutputStream(output);
-             var zis = new ZipInputStream(is);
-             var zos = new ZipOutputStream(os)) {
-            Entry[] entries = new Entry[batchSize];
-            byte[][] labelled = new byte[batchSize][];
-            Future<?>[] futures = new Future[batchSize];
-            Set<String> excludedClasses = new HashSet<>();
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                int i = 0;
-                while (i < batchSize && entry != null) {
-                    var bytes = new ByteArrayOutputStream();
-                    zis.transferTo(bytes);
-                    var finalBytes = bytes.toByteArray();
-                    if (entry.getName().equals("META-INF/MANIFEST.MF")) {
-                        Manifest manifest = new Manifest(new ByteArrayInputStream(finalBytes));
-                        for (var attr : distribution.manifestExcludedClasses) {
-                            var found = manifest.getMainAttributes().getValue(attr);
-                            if (found != null) {
-                                excludedClasses.addAll(Arrays.asList(found.split(";")));
-                            }
-                        }
+        try (var tool = builder.build()) {
+            var results = tool.run(jobs);
+            if (reproducible) {
+                for (int i = 0; i < jobs.size(); i++) {
+                    for (var hash : results.get(i).outputHashes().entrySet()) {
+                        var output = jobs.get(i).outputs().get(hash.getKey());
+                        Files.writeString(output.resolveSibling(output.getFileName() + ".sha256"), hash.getValue() + "  " + output.getFileName() + "\n");
                     }
-                    entries[i] = new Entry(entry, finalBytes);
-                    i++;
-                    if (i < batchSize) {
-                        entry = zis.getNextEntry();
-                    }
-                }
-                for (; i < batchSize; i++) {
-                    entries[i] = null;
-                    labelled[i] = new byte[0];
-                }
-
-                processEntries(entries, labelled, futures, excludedClasses, targeted);
-
-                for (int j = 0; j < batchSize; j++) {
-                    var entryIn = entries[j];
-                    if (entryIn == null) {
-                        continue;
-                    }
-                    ZipEntry zipEntry = entryIn.entry();
-                    var newEntry = new ZipEntry(zipEntry.getName());
-                    if (zipEntry.getExtra() != null) {
-                        newEntry.setExtra(zipEntry.getExtra());
-                    }
-                    if (zipEntry.getLastAccessTime() != null) {
-                        newEntry.setLastAccessTime(zipEntry.getLastAccessTime());
-                    }
-                    if (zipEntry.getLastModifiedTime() != null) {
-                        newEntry.setLastModifiedTime(zipEntry.getLastModifiedTime());
-                    }
-                    if (zipEntry.getCreationTime() != null) {
-                        newEntry.setCreationTime(zipEntry.getCreationTime());
-                    }
-                    if (zipEntry.getComment() != null) {
-                        newEntry.setComment(zipEntry.getComment());
-                    }
-                    byte[] bytes = labelled[j];
-                    zos.putNextEntry(newEntry);
-                    zos.write(bytes);
-                    zos.closeEntry();
                 }
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
-        if (targetClasses != null) {
+
+        if (runStats != null) {
             try {
-                List<String> targetedLines = new ArrayList<>(targeted);
-                targetedLines.sort(Comparator.naturalOrder());
-                Files.write(targetClasses, targetedLines);
+                runStats.write(stats);
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
         }
     }
 
-    private void processEntries(Entry[] entries, byte[][] labelled, Future<?>[] futures, Set<String> excludedClasses, Set<String> targetedClasses) {
-        for (int i = 0; i < batchSize; i++) {
-            var entry = entries[i];
-            if (entry == null) {
-                continue;
+    private List<UnMergeTool.Job> jobs() throws IOException {
+        int modes = (input != null ? 1 : 0) + (inputDir != null ? 1 : 0) + (batch != null ? 1 : 0);
+        if (modes != 1) {
+            throw new IllegalArgumentException("Exactly one of --input, --input-dir or --batch must be given");
+        }
+        if (batch != null) {
+            if (!outputs.isEmpty() || !targetClasses.isEmpty() || !stripIndexes.isEmpty() || previousInput != null || !previousOutputs.isEmpty()) {
+                throw new IllegalArgumentException("--output, --target-classes, --strip-index, --previous-input and --previous-output are given per job in --batch");
             }
-            var number = i;
-            futures[i] = executorService.submit(() -> {
-                if (excludedClasses.contains(entry.entry().getName())) {
-                    entries[number] = null;
-                    return;
-                }
-                if (entry.entry().getName().endsWith(".class")) {
-                    var reader = new ClassReader(entry.contents());
-                    var collector = new CollectingVisitor(null, distribution);
-                    boolean anythingStripped = collector.shouldRemove() || !collector.removeFields().isEmpty() || collector.removeMethods().isEmpty();
-                    if (anythingStripped) {
-                        synchronized (targetedClasses) {
-                            targetedClasses.add(entry.entry().getName());
-                        }
-                    }
-                    reader.accept(collector, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-                    if (collector.shouldRemove()) {
-                        entries[number] = null;
-                        return;
-                    }
-                    var writer = new ClassWriter(0);
-                    reader.accept(new ProcessingVisitor(writer, collector), 0);
-                    labelled[number] = writer.toByteArray();
-                } else {
-                    labelled[number] = entry.contents();
-                }
-            });
+            return BatchJobs.fromManifest(batch, distribution);
         }
-        for (int i = 0; i < batchSize; i++) {
-            try {
-                futures[i].get();
-            } catch (InterruptedException | ExecutionException e) {
-                throw new RuntimeException(e);
+        if (outputs.isEmpty()) {
+            throw new IllegalArgumentException("No --output given");
+        }
+        Map<Distribution, Path> outputPaths = new EnumMap<>(Distribution.class);
+        for (var output : outputs) {
+            var outputDistribution = output.distributionOr(distribution, "--output");
+            if (outputPaths.putIfAbsent(outputDistribution, output.path()) != null) {
+                throw new IllegalArgumentException("More than one output given for distribution " + outputDistribution);
+            }
+        }
+        Map<Distribution, Path> targetClassesPaths = new EnumMap<>(Distribution.class);
+        for (var targets : targetClasses) {
+            var targetsDistribution = targets.distributionOr(distribution, "--target-classes");
+            if (targetClassesPaths.putIfAbsent(targetsDistribution, targets.path()) != null) {
+                throw new IllegalArgumentException("More than one list of target classes given for distribution " + targetsDistribution);
+            }
+        }
+        Map<Distribution, Path> stripIndexPaths = new EnumMap<>(Distribution.class);
+        for (var index : stripIndexes) {
+            var indexDistribution = index.distributionOr(distribution, "--strip-index");
+            if (stripIndexPaths.putIfAbsent(indexDistribution, index.path()) != null) {
+                throw new IllegalArgumentException("More than one strip index given for distribution " + indexDistribution);
             }
         }
+        Map<Distribution, Path> previousOutputPaths = new EnumMap<>(Distribution.class);
+        for (var previous : previousOutputs) {
+            var previousDistribution = previous.distributionOr(distribution, "--previous-output");
+            if (previousOutputPaths.putIfAbsent(previousDistribution, previous.path()) != null) {
+                throw new IllegalArgumentException("More than one previous output given for distribution " + previousDistribution);
+            }
+        }
+        if (inputDir != null) {
+            if (previousInput != null || !previousOutputPaths.isEmpty()) {
+                throw new IllegalArgumentException("--previous-input and --previous-output are not supported with --input-dir");
+            }
+            return BatchJobs.fromDirectory(inputDir, inputGlob, outputPaths, targetClassesPaths, stripIndexPaths);
+        }
+        return List.of(new UnMergeTool.Job(input, outputPaths, targetClassesPaths, stripIndexPaths, previousInput, previousOutputPaths));
     }
-
-    private record Entry(ZipEntry entry, byte[] contents) {}
-
-    private final ExecutorService executorService = Executors.newFixedThreadPool(batchSize);
 }
@@ -10,11 +10,31 @@
 class ProcessingVisitor extends ClassVisitor {
     private final Set<String> removeMethods;
     private final Set<String> removeFields;
+    private final Set<String> removeNestedClasses;
     
-    protected ProcessingVisitor(ClassVisitor classVisitor, CollectingVisitor collectingVisitor) {
+    protected ProcessingVisitor(ClassVisitor classVisitor, Set<String> removeMethods, Set<String> removeFields) {
+        this(classVisitor, removeMethods, removeFields, Set.of());
+    }
+
+    protected ProcessingVisitor(ClassVisitor classVisitor, Set<String> removeMethods, Set<String> removeFields, Set<String> removeNestedClasses) {
         super(Opcodes.ASM9, classVisitor);
-        this.removeMethods = collectingVisitor.removeMethods();
-        this.removeFields = collectingVisitor.removeFields();
+        this.removeMethods = removeMethods;
+        this.removeFields = removeFields;
+        this.removeNestedClasses = removeNestedClasses;
+    }
+
+    @Override
+    public void visitNestMember(String nestMember) {
+        if (!removeNestedClasses.contains(nestMember)) {
+            super.visitNestMember(nestMember);
+        }
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        if (!removeNestedClasses.contains(name)) {
+            super.visitInnerClass(name, outerName, innerName, access);
+        }
     }
 
     @Override
@@ -0,0 +1,329 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.Distribution;
+import dev.lukebemish.unmergetool.common.EnumAnnotation;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class RunStats {
+    static final RunStats DISABLED = new RunStats(false, 0);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    enum Phase {
+        READ,
+        COLLECT,
+        CASCADE,
+        CACHE,
+        REWRITE,
+        DEFLATE,
+        WRITE
+    }
+
+    enum Wait {
+        // Time entries spent submitted to the executor before a worker picked them up
+        WORKER,
+        // Time the writing thread spent waiting for the next entry
+        WRITER,
+        // Time the scheduling thread spent blocked on the byte budget
+        SCHEDULER
+    }
+
+    private final boolean enabled;
+    private final boolean cpuTime;
+    private final int slowestCount;
+
+    private final Map<Phase, LongAdder> phaseWall = counters(Phase.class);
+    private final Map<Phase, LongAdder> phaseCpu = counters(Phase.class);
+    private final Map<Phase, LongAdder> phaseCount = counters(Phase.class);
+    private final Map<Wait, LongAdder> waits = counters(Wait.class);
+    private final LongAdder jobs = new LongAdder();
+    private final LongAdder entriesIn = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder classesIn = new LongAdder();
+    private final LongAdder entriesReused = new LongAdder();
+    private final LongAdder entriesOut = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder workerBusy = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final Map<Distribution, Removals> removals = new EnumMap<>(Distribution.class);
+    private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastEnd = new AtomicLong(Long.MIN_VALUE);
+    private final PriorityQueue<SlowClass> slowest = new PriorityQueue<>(Comparator.comparingLong(SlowClass::nanos));
+    private volatile int workerThreads;
+
+    public RunStats(int slowestCount) {
+        this(true, slowestCount);
+    }
+
+    private RunStats(boolean enabled, int slowestCount) {
+        if (slowestCount < 0) {
+            throw new IllegalArgumentException("Slowest class count must not be negative: " + slowestCount);
+        }
+        this.enabled = enabled;
+        this.cpuTime = enabled && THREADS.isCurrentThreadCpuTimeSupported();
+        this.slowestCount = slowestCount;
+        for (var distribution : Distribution.values()) {
+            removals.put(distribution, new Removals());
+        }
+    }
+
+    private static <T extends Enum<T>> Map<T, LongAdder> counters(Class<T> type) {
+        var map = new EnumMap<T, LongAdder>(type);
+        for (var constant : type.getEnumConstants()) {
+            map.put(constant, new LongAdder());
+        }
+        return map;
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    long wallTime() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    long cpuTime() {
+        return cpuTime ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    void phase(Phase phase, long wallStart, long cpuStart) {
+        if (enabled) {
+            phaseWall.get(phase).add(System.nanoTime() - wallStart);
+            if (cpuTime) {
+                phaseCpu.get(phase).add(THREADS.getCurrentThreadCpuTime() - cpuStart);
+            }
+            phaseCount.get(phase).increment();
+        }
+    }
+
+    void waited(Wait wait, long wallStart) {
+        if (enabled) {
+            waits.get(wait).add(System.nanoTime() - wallStart);
+        }
+    }
+
+    void workerThreads(int threads) {
+        this.workerThreads = threads;
+    }
+
+    void jobStarted() {
+        if (enabled) {
+            jobs.increment();
+            firstStart.accumulateAndGet(System.nanoTime(), Math::min);
+        }
+    }
+
+    void jobFinished() {
+        if (enabled) {
+            lastEnd.accumulateAndGet(System.nanoTime(), Math::max);
+        }
+    }
+
+    void entryRead(long compressedSize, boolean isClass) {
+        if (enabled) {
+            entriesIn.increment();
+            bytesIn.add(compressedSize);
+            if (isClass) {
+                classesIn.increment();
+            }
+        }
+    }
+
+    void entryReused() {
+        if (enabled) {
+            entriesReused.increment();
+        }
+    }
+
+    void outputWritten(int entries, long bytes) {
+        if (enabled) {
+            entriesOut.add(entries);
+            bytesOut.add(bytes);
+        }
+    }
+
+    void cacheLookup(boolean hit) {
+        if (enabled) {
+            (hit ? cacheHits : cacheMisses).increment();
+        }
+    }
+
+    void stripped(Distribution distribution, StripResult result) {
+        if (enabled && result.stripsAnything()) {
+            var counts = removals.get(distribution);
+            if (result.removeClass()) {
+                counts.classes.increment();
+            } else {
+                counts.methods.add(result.removeMethods().size());
+                counts.fields.add(result.removeFields().size());
+            }
+            result.removalsByKind().forEach((kind, count) -> counts.byKind.computeIfAbsent(kind, k -> new LongAdder()).add(count));
+        }
+    }
+
+    void entryProcessed(Path input, String name, long nanos, boolean isClass) {
+        if (!enabled) {
+            return;
+        }
+        workerBusy.add(nanos);
+        if (!isClass || slowestCount == 0) {
+            return;
+        }
+        synchronized (slowest) {
+            if (slowest.size() < slowestCount) {
+                slowest.add(new SlowClass(input, name, nanos));
+            } else if (slowest.peek().nanos() < nanos) {
+                slowest.poll();
+                slowest.add(new SlowClass(input, name, nanos));
+            }
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        if (path.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+        Files.writeString(path, toJson());
+    }
+
+    public String toJson() {
+        long elapsed = Math.max(0, lastEnd.get() - firstStart.get());
+        var json = new StringBuilder("{\n");
+        json.append("  \"jobs\": ").append(jobs.sum()).append(",\n");
+        json.append("  \"wallMillis\": ").append(millis(elapsed)).append(",\n");
+        json.append("  \"phases\": {");
+        var separator = "\n";
+        for (var phase : Phase.values()) {
+            json.append(separator).append("    ").append(name(phase)).append(": {")
+                .append("\"wallMillis\": ").append(millis(phaseWall.get(phase).sum()))
+                .append(", \"cpuMillis\": ").append(cpuTime ? millis(phaseCpu.get(phase).sum()) : "null")
+                .append(", \"count\": ").append(phaseCount.get(phase).sum()).append('}');
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+        json.append("  \"input\": {\"entries\": ").append(entriesIn.sum())
+            .append(", \"classes\": ").append(classesIn.sum())
+            .append(", \"bytes\": ").append(bytesIn.sum())
+            .append(", \"reused\": ").append(entriesReused.sum()).append("},\n");
+        json.append("  \"output\": {\"entries\": ").append(entriesOut.sum())
+            .append(", \"bytes\": ").append(bytesOut.sum()).append("},\n");
+        json.append("  \"removals\": {");
+        separator = "\n";
+        for (var entry : removals.entrySet()) {
+            var counts = entry.getValue();
+            json.append(separator).append("    ").append(name(entry.getKey())).append(": {")
+                .append("\"classes\": ").append(counts.classes.sum())
+                .append(", \"methods\": ").append(counts.methods.sum())
+                .append(", \"fields\": ").append(counts.fields.sum())
+                .append(", \"byKind\": {");
+            var kindSeparator = "";
+            for (var kind : EnumAnnotation.values()) {
+                json.append(kindSeparator).append(name(kind)).append(": ").append(counts.byKind.get(kind.name()).sum());
+                kindSeparator = ", ";
+            }
+            // Custom annotation types follow, by their qualified names
+            var custom = new TreeMap<>(counts.byKind);
+            for (var kind : EnumAnnotation.values()) {
+                custom.remove(kind.name());
+            }
+            for (var kind : custom.entrySet()) {
+                json.append(kindSeparator).append(string(kind.getKey())).append(": ").append(kind.getValue().sum());
+            }
+            json.append("}}");
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+        long busy = workerBusy.sum();
+        int threads = workerThreads;
+        json.append("  \"workers\": {\"threads\": ").append(threads == 0 ? "null" : threads)
+            .append(", \"busyMillis\": ").append(millis(busy))
+            .append(", \"utilization\": ").append(threads == 0 || elapsed == 0 ? "null" : String.format(Locale.ROOT, "%.4f", (double) busy / ((double) elapsed * threads)))
+            .append("},\n");
+        json.append("  \"queueWaitMillis\": {");
+        separator = "";
+        for (var wait : Wait.values()) {
+            json.append(separator).append(name(wait)).append(": ").append(millis(waits.get(wait).sum()));
+            separator = ", ";
+        }
+        json.append("},\n");
+        json.append("  \"cache\": {\"hits\": ").append(cacheHits.sum())
+            .append(", \"misses\": ").append(cacheMisses.sum()).append("},\n");
+        json.append("  \"slowestClasses\": [");
+        ArrayList<SlowClass> slowClasses;
+        synchronized (slowest) {
+            slowClasses = new ArrayList<>(slowest);
+        }
+        slowClasses.sort(Comparator.comparingLong(SlowClass::nanos).reversed());
+        separator = "\n";
+        for (var slowClass : slowClasses) {
+            json.append(separator).append("    {\"input\": ").append(string(slowClass.input().toString()))
+                .append(", \"name\": ").append(string(slowClass.name()))
+                .append(", \"millis\": ").append(millis(slowClass.nanos())).append('}');
+            separator = ",\n";
+        }
+        json.append(slowClasses.isEmpty() ? "]\n" : "\n  ]\n");
+        return json.append("}\n").toString();
+    }
+
+    private static String name(Enum<?> constant) {
+        return string(constant.name().toLowerCase(Locale.ROOT));
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String string(String value) {
+        var json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    private static final class Removals {
+        private final LongAdder classes = new LongAdder();
+        private final LongAdder methods = new LongAdder();
+        private final LongAdder fields = new LongAdder();
+        private final Map<String, LongAdder> byKind = new ConcurrentHashMap<>();
+
+        private Removals() {
+            for (var kind : EnumAnnotation.values()) {
+                byKind.put(kind.name(), new LongAdder());
+            }
+        }
+    }
+
+    private record SlowClass(Path input, String name, long nanos) {}
+}
@@ -0,0 +1,122 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.AnnotationMatcher;
+import dev.lukebemish.unmergetool.common.Distribution;
+import org.jspecify.annotations.Nullable;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.ProtectionDomain;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+// Attached with -javaagent:unmergetool.jar=<distribution>[,<annotations file>]. Classes that would be removed entirely
+// fail to load with a NoClassDefFoundError.
+public final class StripAgent implements ClassFileTransformer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StripAgent.class);
+
+    private final Distribution distribution;
+    private final AnnotationMatcher matcher;
+    private final Map<String, Set<String>> excludedEntries = new ConcurrentHashMap<>();
+
+    private StripAgent(Distribution distribution, AnnotationMatcher matcher) {
+        this.distribution = distribution;
+        this.matcher = matcher;
+    }
+
+    public static void premain(@Nullable String args, Instrumentation instrumentation) throws IOException {
+        if (args == null || args.isBlank()) {
+            throw new IllegalArgumentException("No distribution given; attach the agent as -javaagent:<jar>=<distribution>[,<annotations file>]");
+        }
+        int separator = args.indexOf(',');
+        var distribution = Distribution.valueOf((separator < 0 ? args : args.substring(0, separator)).trim().toUpperCase(Locale.ROOT));
+        var matcher = separator < 0 ? AnnotationMatcher.DEFAULT : AnnotationMatcher.withConfig(Path.of(args.substring(separator + 1).trim()));
+        instrumentation.addTransformer(new StripAgent(distribution, matcher));
+    }
+
+    @Override
+    public byte @Nullable [] transform(@Nullable ClassLoader loader, @Nullable String className, @Nullable Class<?> classBeingRedefined, @Nullable ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        // Classes already defined cannot lose members, so only classes being defined for the first time are handled
+        if (className == null || classBeingRedefined != null) {
+            return null;
+        }
+        try {
+            if (excludedEntries(protectionDomain).contains(className + ".class")) {
+                return rejected(className);
+            }
+            if (!ConstantPoolScanner.mayReferenceAnnotations(matcher, classfileBuffer)) {
+                return null;
+            }
+            var collector = AnnotationScanner.collect(matcher, classfileBuffer, classfileBuffer.length);
+            if (!collector.marksAnything()) {
+                return null;
+            }
+            var result = StripResult.strip(classfileBuffer, classfileBuffer.length, collector, distribution);
+            if (result.removeClass()) {
+                return rejected(className);
+            }
+            return result.contents();
+        } catch (RuntimeException e) {
+            // The JVM discards exceptions thrown by transformers without a trace
+            LOGGER.error("Failed to strip {} for {}; loading it unchanged", className, distribution, e);
+            return null;
+        }
+    }
+
+    // A transformer cannot stop a class from loading by throwing, but a class file declaring another name fails to load
+    private byte[] rejected(String className) {
+        var writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className + "$$RemovedFor" + distribution, null, "java/lang/Object", null);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private Set<String> excludedEntries(@Nullable ProtectionDomain protectionDomain) {
+        var codeSource = protectionDomain == null ? null : protectionDomain.getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null || !"file".equals(codeSource.getLocation().getProtocol())) {
+            return Set.of();
+        }
+        return excludedEntries.computeIfAbsent(codeSource.getLocation().toString(), location -> {
+            try {
+                return readExcludedEntries(Path.of(codeSource.getLocation().toURI()));
+            } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+                LOGGER.warn("Could not read the manifest of {}; no entries of it are excluded", location, e);
+                return Set.of();
+            }
+        });
+    }
+
+    private Set<String> readExcludedEntries(Path location) throws IOException {
+        Manifest manifest;
+        if (Files.isDirectory(location)) {
+            var manifestPath = location.resolve(JarFile.MANIFEST_NAME);
+            if (!Files.isRegularFile(manifestPath)) {
+                return Set.of();
+            }
+            try (InputStream is = Files.newInputStream(manifestPath)) {
+                manifest = new Manifest(is);
+            }
+        } else {
+            try (var jar = new JarFile(location.toFile(), false)) {
+                manifest = jar.getManifest();
+            }
+            if (manifest == null) {
+                return Set.of();
+            }
+        }
+        return distribution.excludedEntries(manifest);
+    }
+}
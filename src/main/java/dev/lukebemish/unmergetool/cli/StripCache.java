@@ -0,0 +1,267 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.AnnotationMatcher;
+import dev.lukebemish.unmergetool.common.Distribution;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Entries are written atomically and treated as missing if they vanish or cannot be read, so several processes may
+// share a directory
+final class StripCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StripCache.class);
+
+    private static final int FORMAT = 2;
+    private static final String LOCK_FILE = ".lock";
+
+    private final Path directory;
+    private final long maxSize;
+    private final byte[] salt;
+    private final AtomicLong size = new AtomicLong();
+
+    private StripCache(Path directory, long maxSize, AnnotationMatcher matcher) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.salt = salt(matcher);
+    }
+
+    static StripCache open(Path directory, long maxSize, AnnotationMatcher matcher) throws IOException {
+        Files.createDirectories(directory);
+        var cache = new StripCache(directory, maxSize, matcher);
+        cache.size.set(cache.entries().stream().mapToLong(CachedFile::size).sum());
+        cache.evict();
+        return cache;
+    }
+
+    private static byte[] salt(AnnotationMatcher matcher) {
+        var version = StripCache.class.getPackage().getImplementationVersion();
+        var salt = new StringBuilder().append(FORMAT).append('\n').append(version == null ? "dev" : version).append('\n');
+        appendTypes(salt, matcher);
+        return salt.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static void appendTypes(StringBuilder builder, AnnotationMatcher matcher) {
+        for (var annotationType : matcher.types()) {
+            builder.append(annotationType.name()).append(' ').append(annotationType.annotationType()).append(' ').append(annotationType.repeatable())
+                .append(' ').append(annotationType.annotationName()).append(' ').append(annotationType.clientValue())
+                .append(' ').append(annotationType.serverValue()).append('\n');
+        }
+    }
+
+    String key(byte[] contents, int length) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            digest.update(contents, 0, length);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Nullable StripResult get(String key, Distribution distribution) {
+        var path = path(key, distribution);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Could not read cache entry {}", path, e);
+            return null;
+        }
+        StripResult result;
+        try (var in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != FORMAT) {
+                return null;
+            }
+            var removeClass = in.readBoolean();
+            var removeMethods = readStrings(in);
+            var removeFields = readStrings(in);
+            var removalsByKind = new HashMap<String, Integer>();
+            int kinds = in.readInt();
+            for (int i = 0; i < kinds; i++) {
+                removalsByKind.put(in.readUTF(), in.readInt());
+            }
+            int length = in.readInt();
+            byte[] contents = length < 0 ? null : in.readNBytes(length);
+            if (contents != null && contents.length != length) {
+                throw new IOException("Truncated cache entry");
+            }
+            result = new StripResult(removeClass, removeMethods, removeFields, removalsByKind, contents);
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.warn("Discarding unreadable cache entry {}", path, e);
+            delete(path);
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // Evicted in the meantime; the result read is still valid
+        }
+        return result;
+    }
+
+    void put(String key, Distribution distribution, StripResult result) {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT);
+            out.writeBoolean(result.removeClass());
+            writeStrings(out, result.removeMethods());
+            writeStrings(out, result.removeFields());
+            out.writeInt(result.removalsByKind().size());
+            for (var entry : result.removalsByKind().entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+            var contents = result.contents();
+            out.writeInt(contents == null ? -1 : contents.length);
+            if (contents != null) {
+                out.write(contents);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var path = path(key, distribution);
+        try {
+            Files.createDirectories(path.getParent());
+            var temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, bytes.toByteArray());
+                try {
+                    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not write cache entry {}", path, e);
+            return;
+        }
+        if (size.addAndGet(bytes.size()) > maxSize) {
+            evict();
+        }
+    }
+
+    synchronized void evict() {
+        if (size.get() <= maxSize) {
+            return;
+        }
+        try (var channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             var lock = channel.tryLock()) {
+            if (lock == null) {
+                return;
+            }
+            var entries = entries();
+            entries.sort(Comparator.comparing(CachedFile::lastUsed));
+            long total = entries.stream().mapToLong(CachedFile::size).sum();
+            long target = maxSize / 4 * 3;
+            for (var entry : entries) {
+                if (total <= target) {
+                    break;
+                }
+                if (delete(entry.path())) {
+                    total -= entry.size();
+                }
+            }
+            size.set(total);
+        } catch (OverlappingFileLockException e) {
+            // Another cache over the same directory in this process is already evicting
+        } catch (IOException e) {
+            LOGGER.warn("Could not evict entries from cache {}", directory, e);
+        }
+    }
+
+    private List<CachedFile> entries() throws IOException {
+        var entries = new ArrayList<CachedFile>();
+        try (var shards = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (var shard : shards) {
+                // Other processes move entries into place and evict them while this lists them, so anything may vanish
+                try (var paths = Files.newDirectoryStream(shard)) {
+                    for (var path : paths) {
+                        if (path.getFileName().toString().endsWith(".tmp")) {
+                            continue;
+                        }
+                        try {
+                            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                            if (attributes.isRegularFile()) {
+                                entries.add(new CachedFile(path, attributes.size(), attributes.lastModifiedTime()));
+                            }
+                        } catch (NoSuchFileException ignored) {
+                            // Evicted by another process
+                        }
+                    }
+                } catch (NoSuchFileException ignored) {
+                    // Removed by another process
+                } catch (IOException | DirectoryIteratorException e) {
+                    LOGGER.warn("Could not list cache entries in {}", shard, e);
+                }
+            }
+        } catch (DirectoryIteratorException e) {
+            LOGGER.warn("Could not list cache entries in {}", directory, e);
+        }
+        return entries;
+    }
+
+    private Path path(String key, Distribution distribution) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + "-" + distribution.name().toLowerCase(Locale.ROOT));
+    }
+
+    private static boolean delete(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Set<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        var strings = new HashSet<String>();
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (var string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private record CachedFile(Path path, long size, FileTime lastUsed) {}
+}
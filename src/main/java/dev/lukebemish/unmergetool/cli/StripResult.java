@@ -0,0 +1,50 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.Distribution;
+import org.jspecify.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+record StripResult(boolean removeClass, Set<String> removeMethods, Set<String> removeFields, Map<String, Integer> removalsByKind, byte @Nullable [] contents) {
+    static final StripResult UNCHANGED = new StripResult(false, Set.of(), Set.of(), Map.of(), null);
+
+    boolean stripsAnything() {
+        return removeClass || !removeMethods.isEmpty() || !removeFields.isEmpty();
+    }
+
+    static StripResult strip(byte[] contents, int length, CollectingVisitor collector, Distribution distribution) {
+        if (collector.shouldRemove(distribution)) {
+            return new StripResult(true, collector.removeMethods(distribution), collector.removeFields(distribution), collector.removalsByKind(distribution), null);
+        }
+        var removeMethods = collector.removeMethods(distribution);
+        var removeFields = collector.removeFields(distribution);
+        if (removeMethods.isEmpty() && removeFields.isEmpty()) {
+            return UNCHANGED;
+        }
+        // Handing the reader to the writer copies the constant pool, and lets ASM copy the bytecode of every method
+        // that passes through ProcessingVisitor untouched instead of decoding and re-encoding it.
+        var reader = new ClassReader(contents, 0, length);
+        var writer = new ClassWriter(reader, 0);
+        reader.accept(new ProcessingVisitor(writer, removeMethods, removeFields), 0);
+        return new StripResult(false, removeMethods, removeFields, collector.removalsByKind(distribution), writer.toByteArray());
+    }
+
+    // Rewritten from the original contents even if cascading only drops nested classes
+    StripResult withCascaded(CascadeAnalysis.Removals cascaded, byte[] contents, int length) {
+        if (removeClass || cascaded.removeClass()) {
+            return new StripResult(true, removeMethods, removeFields, removalsByKind, null);
+        }
+        var methods = new HashSet<>(removeMethods);
+        methods.addAll(cascaded.removeMethods());
+        var fields = new HashSet<>(removeFields);
+        fields.addAll(cascaded.removeFields());
+        var reader = new ClassReader(contents, 0, length);
+        var writer = new ClassWriter(reader, 0);
+        reader.accept(new ProcessingVisitor(writer, methods, fields, cascaded.removeNestedClasses()), 0);
+        return new StripResult(false, methods, fields, removalsByKind, writer.toByteArray());
+    }
+}
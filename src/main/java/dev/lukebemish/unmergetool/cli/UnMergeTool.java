@@ -0,0 +1,333 @@
+package dev.lukebemish.unmergetool.cli;
+
+import dev.lukebemish.unmergetool.common.AnnotationMatcher;
+import dev.lukebemish.unmergetool.common.Distribution;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class UnMergeTool implements AutoCloseable {
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final ByteBudget budget;
+    private final BufferPool pool;
+    private final Compressor compressor;
+    private final AnnotationMatcher matcher;
+    private final long streamThreshold;
+    private final boolean reproducible;
+    private final boolean cascade;
+    private final int concurrentJobs;
+    private final @Nullable StripCache cache;
+    private final RunStats stats;
+    private volatile boolean closed;
+
+    private UnMergeTool(ExecutorService executor, boolean ownsExecutor, long inFlightBytes, long streamThreshold, @Nullable Compression compression, AnnotationMatcher matcher, boolean reproducible, boolean cascade, int concurrentJobs, @Nullable StripCache cache, RunStats stats) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.budget = new ByteBudget(inFlightBytes);
+        this.pool = new BufferPool(inFlightBytes);
+        this.compressor = new Compressor(compression, pool);
+        this.matcher = matcher;
+        this.streamThreshold = streamThreshold;
+        this.reproducible = reproducible;
+        this.cascade = cascade;
+        this.concurrentJobs = concurrentJobs;
+        this.cache = cache;
+        this.stats = stats;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Result run(Job job) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("UnMergeTool has been closed");
+        }
+        return new JarProcessor(job, executor, budget, pool, compressor, matcher, streamThreshold, reproducible, cascade, cache, stats).run();
+    }
+
+    // Every job is run even if some fail; the first failure is then thrown with the others suppressed
+    public List<Result> run(List<Job> jobs) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("UnMergeTool has been closed");
+        }
+        if (jobs.isEmpty()) {
+            return List.of();
+        }
+        // Each running job needs a thread of its own to write its outputs in order; the entries themselves all go
+        // through the shared executor
+        var writers = Executors.newFixedThreadPool(Math.min(jobs.size(), concurrentJobs), new NamedThreadFactory("unmergetool-job-"));
+        try {
+            var futures = new ArrayList<Future<Result>>();
+            for (var job : jobs) {
+                futures.add(writers.submit(() -> new JarProcessor(job, executor, budget, pool, compressor, matcher, streamThreshold, reproducible, cascade, cache, stats).run()));
+            }
+            var results = new ArrayList<Result>();
+            Exception failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    var cause = e.getCause() instanceof Exception exception ? exception : e;
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    for (var future : futures) {
+                        future.cancel(true);
+                    }
+                    throw new InterruptedIOException("Interrupted while running " + jobs.size() + " jobs");
+                }
+            }
+            if (failure instanceof IOException io) {
+                throw io;
+            } else if (failure instanceof RuntimeException runtime) {
+                throw runtime;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+            return results;
+        } finally {
+            writers.shutdown();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        compressor.close();
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    public static final class Builder {
+        private @Nullable ExecutorService executor;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private long inFlightBytes = 64L << 20;
+        private long streamThreshold = 1L << 20;
+        private @Nullable Compression compression;
+        private boolean reproducible;
+        private boolean cascade;
+        private AnnotationMatcher matcher = AnnotationMatcher.DEFAULT;
+        private int concurrentJobs = Runtime.getRuntime().availableProcessors();
+        private @Nullable Path cacheDir;
+        private long cacheSize = 512L << 20;
+        private RunStats stats = RunStats.DISABLED;
+
+        private Builder() {}
+
+        // A caller-supplied executor is left running when the tool is closed
+        public Builder executor(ExecutorService executor) {
+            this.executor = Objects.requireNonNull(executor);
+            return this;
+        }
+
+        public Builder threads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Thread count must be positive: " + threads);
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder inFlightBytes(long inFlightBytes) {
+            if (inFlightBytes < 1) {
+                throw new IllegalArgumentException("In-flight byte budget must be positive: " + inFlightBytes);
+            }
+            this.inFlightBytes = inFlightBytes;
+            return this;
+        }
+
+        public Builder streamThreshold(long streamThreshold) {
+            if (streamThreshold < 0) {
+                throw new IllegalArgumentException("Stream threshold must not be negative: " + streamThreshold);
+            }
+            this.streamThreshold = streamThreshold;
+            return this;
+        }
+
+        public Builder compression(Compression compression) {
+            this.compression = Objects.requireNonNull(compression);
+            return this;
+        }
+
+        public Builder reproducible(boolean reproducible) {
+            this.reproducible = reproducible;
+            return this;
+        }
+
+        public Builder cascade(boolean cascade) {
+            this.cascade = cascade;
+            return this;
+        }
+
+        public Builder annotations(AnnotationMatcher matcher) {
+            this.matcher = Objects.requireNonNull(matcher);
+            return this;
+        }
+
+        public Builder concurrentJobs(int concurrentJobs) {
+            if (concurrentJobs < 1) {
+                throw new IllegalArgumentException("Concurrent job count must be positive: " + concurrentJobs);
+            }
+            this.concurrentJobs = concurrentJobs;
+            return this;
+        }
+
+        public Builder cache(Path directory, long maxSize) {
+            this.cacheDir = Objects.requireNonNull(directory);
+            this.cacheSize = maxSize;
+            return this;
+        }
+
+        public Builder stats(RunStats stats) {
+            this.stats = Objects.requireNonNull(stats);
+            return this;
+        }
+
+        public UnMergeTool build() throws IOException {
+            var cache = cacheDir == null ? null : StripCache.open(cacheDir.toAbsolutePath(), cacheSize, matcher);
+            // Level 6 is what zlib uses by default
+            var compression = this.compression == null && reproducible ? Compression.deflated(6) : this.compression;
+            if (executor != null) {
+                if (executor instanceof ThreadPoolExecutor pool) {
+                    stats.workerThreads(pool.getMaximumPoolSize());
+                }
+                return new UnMergeTool(executor, false, inFlightBytes, streamThreshold, compression, matcher, reproducible, cascade, concurrentJobs, cache, stats);
+            }
+            stats.workerThreads(threads);
+            return new UnMergeTool(Executors.newFixedThreadPool(threads, new NamedThreadFactory("unmergetool-worker-")), true, inFlightBytes, streamThreshold, compression, matcher, reproducible, cascade, concurrentJobs, cache, stats);
+        }
+    }
+
+    public record Job(Path input, Map<Distribution, Path> outputs, Map<Distribution, Path> targetClasses, Map<Distribution, Path> stripIndexes, @Nullable Path previousInput, Map<Distribution, Path> previousOutputs) {
+        public Job {
+            Objects.requireNonNull(input);
+            if (outputs.isEmpty()) {
+                throw new IllegalArgumentException("No outputs given for " + input);
+            }
+            for (var distribution : targetClasses.keySet()) {
+                if (!outputs.containsKey(distribution)) {
+                    throw new IllegalArgumentException("Target classes requested for distribution " + distribution + " without an output");
+                }
+            }
+            outputs = Collections.unmodifiableMap(new EnumMap<>(outputs));
+            for (var distribution : stripIndexes.keySet()) {
+                if (!outputs.containsKey(distribution)) {
+                    throw new IllegalArgumentException("Strip index requested for distribution " + distribution + " without an output");
+                }
+            }
+            for (var distribution : previousOutputs.keySet()) {
+                if (!outputs.containsKey(distribution)) {
+                    throw new IllegalArgumentException("Previous output given for distribution " + distribution + " without an output");
+                }
+            }
+            if ((previousInput == null) != previousOutputs.isEmpty()) {
+                throw new IllegalArgumentException("A previous input and previous outputs must be given together");
+            }
+            targetClasses = targetClasses.isEmpty() ? Map.of() : Collections.unmodifiableMap(new EnumMap<>(targetClasses));
+            stripIndexes = stripIndexes.isEmpty() ? Map.of() : Collections.unmodifiableMap(new EnumMap<>(stripIndexes));
+            previousOutputs = previousOutputs.isEmpty() ? Map.of() : Collections.unmodifiableMap(new EnumMap<>(previousOutputs));
+        }
+
+        public Job(Path input, Map<Distribution, Path> outputs, Map<Distribution, Path> targetClasses, Map<Distribution, Path> stripIndexes) {
+            this(input, outputs, targetClasses, stripIndexes, null, Map.of());
+        }
+
+        public Job(Path input, Map<Distribution, Path> outputs, Map<Distribution, Path> targetClasses) {
+            this(input, outputs, targetClasses, Map.of());
+        }
+
+        public static Builder builder(Path input) {
+            return new Builder(input);
+        }
+
+        public static final class Builder {
+            private final Path input;
+            private final Map<Distribution, Path> outputs = new EnumMap<>(Distribution.class);
+            private final Map<Distribution, Path> targetClasses = new EnumMap<>(Distribution.class);
+            private final Map<Distribution, Path> stripIndexes = new EnumMap<>(Distribution.class);
+            private @Nullable Path previousInput;
+            private final Map<Distribution, Path> previousOutputs = new EnumMap<>(Distribution.class);
+
+            private Builder(Path input) {
+                this.input = Objects.requireNonNull(input);
+            }
+
+            public Builder output(Distribution distribution, Path output) {
+                if (outputs.putIfAbsent(distribution, Objects.requireNonNull(output)) != null) {
+                    throw new IllegalArgumentException("More than one output given for distribution " + distribution);
+                }
+                return this;
+            }
+
+            public Builder targetClasses(Distribution distribution, Path targetClasses) {
+                if (this.targetClasses.putIfAbsent(distribution, Objects.requireNonNull(targetClasses)) != null) {
+                    throw new IllegalArgumentException("More than one list of target classes given for distribution " + distribution);
+                }
+                return this;
+            }
+
+            public Builder stripIndex(Distribution distribution, Path stripIndex) {
+                if (this.stripIndexes.putIfAbsent(distribution, Objects.requireNonNull(stripIndex)) != null) {
+                    throw new IllegalArgumentException("More than one strip index given for distribution " + distribution);
+                }
+                return this;
+            }
+
+            public Builder previousInput(Path previousInput) {
+                this.previousInput = Objects.requireNonNull(previousInput);
+                return this;
+            }
+
+            public Builder previousOutput(Distribution distribution, Path previousOutput) {
+                if (previousOutputs.putIfAbsent(distribution, Objects.requireNonNull(previousOutput)) != null) {
+                    throw new IllegalArgumentException("More than one previous output given for distribution " + distribution);
+                }
+                return this;
+            }
+
+            public Job build() {
+                return new Job(input, outputs, targetClasses, stripIndexes, previousInput, previousOutputs);
+            }
+        }
+    }
+
+    public record Result(Map<Distribution, List<String>> targetedClasses, Map<Distribution, String> outputHashes) {}
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            var thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package dev.lukebemish.unmergetool.cli;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// Reads are positional, so entries may be read from several threads at once
+final class ZipArchive implements Closeable {
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    static final int LOCAL_HEADER = 0x04034b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    static final int END_HEADER = 0x06054b50;
+    static final int ZIP64_END_HEADER = 0x06064b50;
+    static final int ZIP64_LOCATOR = 0x07064b50;
+    static final int ZIP64_EXTRA = 0x0001;
+
+    static final int UTF8_FLAG = 1 << 11;
+    static final int DOS_DIRECTORY = 0x10;
+
+    static final long MAX_32 = 0xFFFFFFFFL;
+    static final int MAX_16 = 0xFFFF;
+
+    // Version 2.0 made by MS-DOS, and 1980-02-01 00:00, the earliest date every zip tool reads the same way
+    private static final int NORMALIZED_VERSION = 20;
+    private static final int NORMALIZED_DATE = (2 << 5) | 1;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int END_HEADER_SIZE = 22;
+
+    private final Storage storage;
+    private final List<Entry> entries;
+    private final Map<String, Entry> byName;
+    private final String comment;
+
+    private ZipArchive(Storage storage, Directory directory) {
+        this.storage = storage;
+        this.entries = Collections.unmodifiableList(directory.entries());
+        this.comment = directory.comment();
+        this.byName = new HashMap<>();
+        for (var entry : entries) {
+            byName.putIfAbsent(entry.name(), entry);
+        }
+    }
+
+    static ZipArchive open(Path path) throws IOException {
+        var storage = new FileStorage(FileChannel.open(path, StandardOpenOption.READ));
+        try {
+            return new ZipArchive(storage, readCentralDirectory(storage));
+        } catch (IOException | RuntimeException e) {
+            storage.close();
+            throw e;
+        }
+    }
+
+    static ZipArchive open(byte[] contents) throws IOException {
+        var storage = new ByteStorage(contents);
+        return new ZipArchive(storage, readCentralDirectory(storage));
+    }
+
+    List<Entry> entries() {
+        return entries;
+    }
+
+    @Nullable Entry entry(String name) {
+        return byName.get(name);
+    }
+
+    String comment() {
+        return comment;
+    }
+
+    byte[] readRaw(Entry entry) throws IOException {
+        var data = new byte[Math.toIntExact(entry.compressedSize())];
+        readRaw(entry, data);
+        return data;
+    }
+
+    void readRaw(Entry entry, byte[] into) throws IOException {
+        read(dataOffset(entry), into, 0, Math.toIntExact(entry.compressedSize()));
+    }
+
+    long dataOffset(Entry entry) throws IOException {
+        var header = read(entry.localHeaderOffset(), LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER) {
+            throw new ZipException("Invalid local header for " + entry.name());
+        }
+        return entry.localHeaderOffset() + LOCAL_HEADER_SIZE + u16(header, 26) + u16(header, 28);
+    }
+
+    void read(long position, byte[] into, int offset, int length) throws IOException {
+        var buffer = ByteBuffer.wrap(into, offset, length);
+        while (buffer.hasRemaining()) {
+            if (storage.read(buffer, position + buffer.position() - offset) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    byte[] read(Entry entry) throws IOException {
+        return inflate(entry, readRaw(entry));
+    }
+
+    static byte[] inflate(Entry entry, byte[] raw) throws IOException {
+        if (entry.method() == STORED) {
+            return raw;
+        }
+        var out = new byte[Math.toIntExact(entry.size())];
+        inflate(entry, raw, raw.length, out);
+        return out;
+    }
+
+    static void inflate(Entry entry, byte[] raw, int rawLength, byte[] out) throws IOException {
+        int size = Math.toIntExact(entry.size());
+        switch (entry.method()) {
+            case STORED -> {
+                if (rawLength != size) {
+                    throw new ZipException("Invalid entry size for " + entry.name());
+                }
+                System.arraycopy(raw, 0, out, 0, size);
+            }
+            case DEFLATED -> {
+                var inflater = new Inflater(true);
+                try {
+                    inflater.setInput(raw, 0, rawLength);
+                    int read = 0;
+                    while (read < size && !inflater.finished()) {
+                        int count = inflater.inflate(out, read, size - read);
+                        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            throw new EOFException("Unexpected end of deflated data for " + entry.name());
+                        }
+                        read += count;
+                    }
+                    if (read != size) {
+                        throw new ZipException("Invalid entry size for " + entry.name());
+                    }
+                } catch (DataFormatException e) {
+                    throw new ZipException("Invalid deflated data for " + entry.name() + ": " + e.getMessage());
+                } finally {
+                    inflater.end();
+                }
+            }
+            default -> throw new ZipException("Unsupported compression method " + entry.method() + " for " + entry.name());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        storage.close();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        return readFully(storage, position, length);
+    }
+
+    private static ByteBuffer readFully(Storage storage, long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (storage.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static Directory readCentralDirectory(Storage storage) throws IOException {
+        long size = storage.size();
+        int tailLength = (int) Math.min(size, END_HEADER_SIZE + MAX_16);
+        var tail = readFully(storage, size - tailLength, tailLength);
+        int end = -1;
+        for (int i = tailLength - END_HEADER_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_HEADER) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("Missing end of central directory");
+        }
+        long count = u16(tail, end + 10);
+        long directorySize = u32(tail, end + 12);
+        long directoryOffset = u32(tail, end + 16);
+        var archiveComment = new String(bytes(tail, end + END_HEADER_SIZE, Math.min(u16(tail, end + 20), tailLength - end - END_HEADER_SIZE)), StandardCharsets.UTF_8);
+        long endPosition = size - tailLength + end;
+        if ((count == MAX_16 || directorySize == MAX_32 || directoryOffset == MAX_32) && endPosition >= 20) {
+            var locator = readFully(storage, endPosition - 20, 20);
+            if (locator.getInt(0) == ZIP64_LOCATOR) {
+                var zip64End = readFully(storage, locator.getLong(8), 56);
+                if (zip64End.getInt(0) != ZIP64_END_HEADER) {
+                    throw new ZipException("Invalid zip64 end of central directory");
+                }
+                count = zip64End.getLong(32);
+                directorySize = zip64End.getLong(40);
+                directoryOffset = zip64End.getLong(48);
+            }
+        }
+
+        var directory = readFully(storage, directoryOffset, Math.toIntExact(directorySize));
+        var entries = new ArrayList<Entry>((int) Math.min(count, Integer.MAX_VALUE));
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (directory.getInt(position) != CENTRAL_HEADER) {
+                throw new ZipException("Invalid central directory header");
+            }
+            int nameLength = u16(directory, position + 28);
+            int extraLength = u16(directory, position + 30);
+            int commentLength = u16(directory, position + 32);
+            long compressedSize = u32(directory, position + 20);
+            long uncompressedSize = u32(directory, position + 24);
+            long localHeaderOffset = u32(directory, position + 42);
+            int flags = u16(directory, position + 8);
+
+            var nameBytes = bytes(directory, position + 46, nameLength);
+            var extra = bytes(directory, position + 46 + nameLength, extraLength);
+            var comment = bytes(directory, position + 46 + nameLength + extraLength, commentLength);
+
+            // Saturated sizes and offsets are stored, in this order, in the zip64 extra field
+            int extraPosition = findExtra(extra, ZIP64_EXTRA);
+            if (extraPosition >= 0) {
+                var zip64 = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+                int fieldPosition = extraPosition + 4;
+                if (uncompressedSize == MAX_32) {
+                    uncompressedSize = zip64.getLong(fieldPosition);
+                    fieldPosition += 8;
+                }
+                if (compressedSize == MAX_32) {
+                    compressedSize = zip64.getLong(fieldPosition);
+                    fieldPosition += 8;
+                }
+                if (localHeaderOffset == MAX_32) {
+                    localHeaderOffset = zip64.getLong(fieldPosition);
+                }
+                extra = removeExtra(extra, ZIP64_EXTRA);
+            }
+
+            entries.add(new Entry(
+                new String(nameBytes, StandardCharsets.UTF_8),
+                u16(directory, position + 4),
+                u16(directory, position + 6),
+                flags,
+                u16(directory, position + 10),
+                u16(directory, position + 12),
+                u16(directory, position + 14),
+                u32(directory, position + 16),
+                compressedSize,
+                uncompressedSize,
+                extra,
+                comment,
+                u16(directory, position + 36),
+                directory.getInt(position + 38),
+                localHeaderOffset
+            ));
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return new Directory(entries, archiveComment);
+    }
+
+    static int findExtra(byte[] extra, int id) {
+        var buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        int position = 0;
+        while (position + 4 <= extra.length) {
+            int length = u16(buffer, position + 2);
+            if (u16(buffer, position) == id) {
+                return position;
+            }
+            position += 4 + length;
+        }
+        return -1;
+    }
+
+    static byte[] removeExtra(byte[] extra, int id) {
+        var buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        var out = ByteBuffer.allocate(extra.length);
+        int position = 0;
+        while (position + 4 <= extra.length) {
+            int length = Math.min(u16(buffer, position + 2), extra.length - position - 4);
+            if (u16(buffer, position) != id) {
+                out.put(extra, position, 4 + length);
+            }
+            position += 4 + length;
+        }
+        return bytes(out.flip(), 0, out.limit());
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int position, int length) {
+        var bytes = new byte[length];
+        buffer.get(position, bytes);
+        return bytes;
+    }
+
+    private static int u16(ByteBuffer buffer, int position) {
+        return Short.toUnsignedInt(buffer.getShort(position));
+    }
+
+    private static long u32(ByteBuffer buffer, int position) {
+        return Integer.toUnsignedLong(buffer.getInt(position));
+    }
+
+    private record Directory(List<Entry> entries, String comment) {}
+
+    private interface Storage extends Closeable {
+        long size() throws IOException;
+
+        int read(ByteBuffer buffer, long position) throws IOException;
+    }
+
+    private record FileStorage(FileChannel channel) implements Storage {
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, long position) throws IOException {
+            return channel.read(buffer, position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private record ByteStorage(byte[] contents) implements Storage {
+        @Override
+        public long size() {
+            return contents.length;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, long position) {
+            if (position >= contents.length) {
+                return -1;
+            }
+            int length = (int) Math.min(buffer.remaining(), contents.length - position);
+            buffer.put(contents, (int) position, length);
+            return length;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    // The zip64 extra field is resolved into the sizes and offset and removed from extra, so that writers can
+    // regenerate it as needed
+    record Entry(
+        String name,
+        int versionMadeBy,
+        int versionNeeded,
+        int flags,
+        int method,
+        int dosTime,
+        int dosDate,
+        long crc,
+        long compressedSize,
+        long size,
+        byte[] extra,
+        byte[] comment,
+        int internalAttributes,
+        int externalAttributes,
+        long localHeaderOffset
+    ) {
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        Entry withData(int method, long crc, long compressedSize, long size) {
+            // Bits 1 and 2 of the flags describe how the original data was deflated
+            int newFlags = method == this.method ? flags : flags & ~0b110;
+            int newVersionNeeded = method == DEFLATED ? Math.max(versionNeeded, 20) : versionNeeded;
+            return new Entry(name, versionMadeBy, newVersionNeeded, newFlags, method, dosTime, dosDate, crc, compressedSize, size, extra, comment, internalAttributes, externalAttributes, localHeaderOffset);
+        }
+
+        Entry normalized() {
+            return new Entry(name, NORMALIZED_VERSION, NORMALIZED_VERSION, flags & UTF8_FLAG, method, 0, NORMALIZED_DATE, crc, compressedSize, size, new byte[0], new byte[0], 0, isDirectory() ? DOS_DIRECTORY : 0, localHeaderOffset);
+        }
+
+        Entry withLocalHeaderOffset(long localHeaderOffset) {
+            return new Entry(name, versionMadeBy, versionNeeded, flags, method, dosTime, dosDate, crc, compressedSize, size, extra, comment, internalAttributes, externalAttributes, localHeaderOffset);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package dev.lukebemish.unmergetool.cli;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+final class ZipWriter implements Closeable {
+    private static final int ZIP64_VERSION = 45;
+    private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+
+    private final OutputStream output;
+    private final List<ZipArchive.Entry> written = new ArrayList<>();
+    private final MessageDigest digest;
+    private @Nullable String contentHash;
+    private byte[] comment = new byte[0];
+    private long position;
+
+    ZipWriter(Path path) throws IOException {
+        this(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+    }
+
+    ZipWriter(OutputStream output) throws IOException {
+        this.output = output;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            output.close();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void writeRaw(ZipArchive.Entry entry, byte[] data) throws IOException {
+        writeRaw(entry, data, data.length);
+    }
+
+    void writeRaw(ZipArchive.Entry entry, byte[] data, int length) throws IOException {
+        var header = entry.withLocalHeaderOffset(position);
+        writeLocalHeader(header);
+        write(data, 0, length);
+        written.add(header);
+    }
+
+    void writeRaw(ZipArchive.Entry entry, ZipArchive source, byte[] buffer) throws IOException {
+        long dataOffset = source.dataOffset(entry);
+        var header = entry.withLocalHeaderOffset(position);
+        writeLocalHeader(header);
+        for (long copied = 0; copied < entry.compressedSize(); ) {
+            int length = (int) Math.min(buffer.length, entry.compressedSize() - copied);
+            source.read(dataOffset + copied, buffer, 0, length);
+            write(buffer, 0, length);
+            copied += length;
+        }
+        written.add(header);
+    }
+
+    void comment(String comment) {
+        var bytes = comment.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > ZipArchive.MAX_16) {
+            throw new IllegalArgumentException("Archive comment is too long: " + bytes.length + " bytes");
+        }
+        this.comment = bytes;
+    }
+
+    int entryCount() {
+        return written.size();
+    }
+
+    long size() {
+        return position;
+    }
+
+    String contentHash() {
+        if (contentHash == null) {
+            throw new IllegalStateException("Archive has not been closed");
+        }
+        return contentHash;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (output) {
+            long directoryOffset = position;
+            for (var entry : written) {
+                writeCentralHeader(entry);
+            }
+            long directorySize = position - directoryOffset;
+            if (written.size() >= ZipArchive.MAX_16 || directoryOffset >= ZipArchive.MAX_32 || directorySize >= ZipArchive.MAX_32) {
+                long zip64EndOffset = position;
+                var zip64End = buffer(56);
+                zip64End.putInt(ZipArchive.ZIP64_END_HEADER);
+                zip64End.putLong(44);
+                zip64End.putShort((short) ZIP64_VERSION);
+                zip64End.putShort((short) ZIP64_VERSION);
+                zip64End.putInt(0);
+                zip64End.putInt(0);
+                zip64End.putLong(written.size());
+                zip64End.putLong(written.size());
+                zip64End.putLong(directorySize);
+                zip64End.putLong(directoryOffset);
+                write(zip64End);
+                var locator = buffer(20);
+                locator.putInt(ZipArchive.ZIP64_LOCATOR);
+                locator.putInt(0);
+                locator.putLong(zip64EndOffset);
+                locator.putInt(1);
+                write(locator);
+            }
+            var end = buffer(22 + comment.length);
+            end.putInt(ZipArchive.END_HEADER);
+            end.putShort((short) 0);
+            end.putShort((short) 0);
+            end.putShort((short) Math.min(written.size(), ZipArchive.MAX_16));
+            end.putShort((short) Math.min(written.size(), ZipArchive.MAX_16));
+            end.putInt((int) Math.min(directorySize, ZipArchive.MAX_32));
+            end.putInt((int) Math.min(directoryOffset, ZipArchive.MAX_32));
+            end.putShort((short) comment.length);
+            end.put(comment);
+            write(end);
+            contentHash = HexFormat.of().formatHex(digest.digest());
+        }
+    }
+
+    private void writeLocalHeader(ZipArchive.Entry entry) throws IOException {
+        var name = entry.name().getBytes(StandardCharsets.UTF_8);
+        boolean zip64 = entry.size() >= ZipArchive.MAX_32 || entry.compressedSize() >= ZipArchive.MAX_32;
+        var extra = zip64 ? withZip64Extra(entry.extra(), entry.size(), entry.compressedSize()) : entry.extra();
+        var header = buffer(30 + name.length + extra.length);
+        header.putInt(ZipArchive.LOCAL_HEADER);
+        header.putShort((short) (zip64 ? Math.max(entry.versionNeeded(), ZIP64_VERSION) : entry.versionNeeded()));
+        header.putShort((short) (entry.flags() & ~DATA_DESCRIPTOR_FLAG));
+        header.putShort((short) entry.method());
+        header.putShort((short) entry.dosTime());
+        header.putShort((short) entry.dosDate());
+        header.putInt((int) entry.crc());
+        header.putInt((int) (zip64 ? ZipArchive.MAX_32 : entry.compressedSize()));
+        header.putInt((int) (zip64 ? ZipArchive.MAX_32 : entry.size()));
+        header.putShort((short) name.length);
+        header.putShort((short) extra.length);
+        header.put(name);
+        header.put(extra);
+        write(header);
+    }
+
+    private void writeCentralHeader(ZipArchive.Entry entry) throws IOException {
+        var name = entry.name().getBytes(StandardCharsets.UTF_8);
+        boolean sizeZip64 = entry.size() >= ZipArchive.MAX_32;
+        boolean compressedSizeZip64 = entry.compressedSize() >= ZipArchive.MAX_32;
+        boolean offsetZip64 = entry.localHeaderOffset() >= ZipArchive.MAX_32;
+        boolean zip64 = sizeZip64 || compressedSizeZip64 || offsetZip64;
+        var extra = entry.extra();
+        if (zip64) {
+            var fields = buffer((sizeZip64 ? 8 : 0) + (compressedSizeZip64 ? 8 : 0) + (offsetZip64 ? 8 : 0));
+            if (sizeZip64) {
+                fields.putLong(entry.size());
+            }
+            if (compressedSizeZip64) {
+                fields.putLong(entry.compressedSize());
+            }
+            if (offsetZip64) {
+                fields.putLong(entry.localHeaderOffset());
+            }
+            extra = prependExtra(extra, fields.array());
+        }
+        var header = buffer(46 + name.length + extra.length + entry.comment().length);
+        header.putInt(ZipArchive.CENTRAL_HEADER);
+        header.putShort((short) entry.versionMadeBy());
+        header.putShort((short) (zip64 ? Math.max(entry.versionNeeded(), ZIP64_VERSION) : entry.versionNeeded()));
+        header.putShort((short) (entry.flags() & ~DATA_DESCRIPTOR_FLAG));
+        header.putShort((short) entry.method());
+        header.putShort((short) entry.dosTime());
+        header.putShort((short) entry.dosDate());
+        header.putInt((int) entry.crc());
+        header.putInt((int) Math.min(entry.compressedSize(), ZipArchive.MAX_32));
+        header.putInt((int) Math.min(entry.size(), ZipArchive.MAX_32));
+        header.putShort((short) name.length);
+        header.putShort((short) extra.length);
+        header.putShort((short) entry.comment().length);
+        header.putShort((short) 0);
+        header.putShort((short) entry.internalAttributes());
+        header.putInt(entry.externalAttributes());
+        header.putInt((int) Math.min(entry.localHeaderOffset(), ZipArchive.MAX_32));
+        header.put(name);
+        header.put(extra);
+        header.put(entry.comment());
+        write(header);
+    }
+
+    private static byte[] withZip64Extra(byte[] extra, long size, long compressedSize) {
+        var fields = buffer(16);
+        fields.putLong(size);
+        fields.putLong(compressedSize);
+        return prependExtra(extra, fields.array());
+    }
+
+    private static byte[] prependExtra(byte[] extra, byte[] zip64Fields) {
+        var out = buffer(4 + zip64Fields.length + extra.length);
+        out.putShort((short) ZipArchive.ZIP64_EXTRA);
+        out.putShort((short) zip64Fields.length);
+        out.put(zip64Fields);
+        out.put(extra);
+        return out.array();
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        write(buffer.array(), 0, buffer.position());
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        output.write(bytes, offset, length);
+        digest.update(bytes, offset, length);
+        position += length;
+    }
+}